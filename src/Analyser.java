@@ -0,0 +1,647 @@
+/**
+ * Trace analyser: streams the event logs of scheduling runs and reports their average waiting,
+ * execution and turnaround times, utilisation and rental cost side by side, overall and per server
+ * type.
+ *
+ * <p>
+ * A run is either a client state log ("java Client -log run.log") or a ds-server log (its "-v all"
+ * output). A state log is cut into chunks of whole segments, which are analysed in parallel and
+ * merged in order; a ds-server log is streamed line by line. Either way memory depends on the
+ * number of servers and of jobs in flight, not on the length of the log.
+ * </p>
+ *
+ * <p>
+ * Cost and utilisation follow SimServer: a server is charged from the start of its boot up until
+ * it is terminated, fails or the log ends, and its utilisation is the core seconds of its completed
+ * jobs over its cores times its rented seconds after boot up. Both need the ds-system.xml of the
+ * runs ("-c").
+ * </p>
+ *
+ * <p>
+ * java Analyser [-c ds-system.xml] [-j threads] [-csv report.csv] [label=]run.log ...
+ * </p>
+ */
+
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import util.*;
+
+public class Analyser {
+  // Segments of a state log analysed as one task
+  private static final int CHUNK_SEGMENTS = 8;
+
+  private static final byte[] STATE_LOG_MAGIC = {'D', 'S', 'S', 'L'};
+  private static final byte[] SENT = "SENT".getBytes();
+  private static final byte[] RCVD = "RCVD".getBytes();
+  private static final byte[] TIME = "t:".getBytes();
+  private static final byte[] JOB = "job".getBytes();
+  private static final byte[] SERVER = "server".getBytes();
+  private static final byte[] HASH = "#".getBytes();
+  private static final byte[][] MESSAGES = {"JOBN".getBytes(), "JOBP".getBytes(),
+      "SCHD".getBytes(), "TERM".getBytes(), "RESF".getBytes(), "JCPL".getBytes()};
+  private static final int JOBN = 0;
+  private static final int JOBP = 1;
+  private static final int SCHD = 2;
+  private static final int TERM = 3;
+  private static final int RESF = 4;
+  private static final int JCPL = 5;
+  private static final byte[][] JOB_STATES = {"RUNNING".getBytes(), "COMPLETED".getBytes(),
+      "KILLED".getBytes(), "FAILED".getBytes()};
+  private static final int RUNNING = 0;
+  private static final int COMPLETED = 1;
+
+  // Rental events, as (kind, row, time) triples
+  private static final int BOOT = 0;
+  private static final int END = 1;
+
+  // The servers of a run by row, and everything measured on them
+  private static class Run {
+    final String label;
+    final String path;
+    final Map<String, ServerXML> catalogue;
+
+    long jobs = 0;
+    long waitingTime = 0;
+    long executionTime = 0;
+    long turnaroundTime = 0;
+    int endTime = 0;
+    long events = 0;
+    long bytes = 0;
+    long nanos = 0;
+    String error = null;
+
+    int rows = 0;
+    String[] serverType = new String[0];
+    long[] busyCoreTime = new long[0];
+    int[] bootStart = new int[0];
+    boolean[] used = new boolean[0];
+    long[] rentedTime = new long[0];
+    double[] rentalCost = new double[0];
+
+    Run(String label, String path, Map<String, ServerXML> catalogue) {
+      this.label = label;
+      this.path = path;
+      this.catalogue = catalogue;
+    }
+
+    void defineRow(int row, String type) {
+      ensureRow(row);
+      serverType[row] = type;
+    }
+
+    void ensureRow(int row) {
+      if (row < rows) {
+        return;
+      }
+      if (row >= serverType.length) {
+        int length = Math.max(row + 1, serverType.length * 2);
+        serverType = Arrays.copyOf(serverType, length);
+        busyCoreTime = Arrays.copyOf(busyCoreTime, length);
+        bootStart = Arrays.copyOf(bootStart, length);
+        used = Arrays.copyOf(used, length);
+        rentedTime = Arrays.copyOf(rentedTime, length);
+        rentalCost = Arrays.copyOf(rentalCost, length);
+      }
+      Arrays.fill(bootStart, rows, row + 1, -1);
+      rows = row + 1;
+    }
+
+    void complete(int row, int submitTime, int startTime, int endTime, int core) {
+      jobs++;
+      waitingTime += startTime - submitTime;
+      executionTime += endTime - startTime;
+      turnaroundTime += endTime - submitTime;
+      if (row >= 0) {
+        ensureRow(row);
+        busyCoreTime[row] += (long) core * (endTime - startTime);
+      }
+    }
+
+    boolean isRented(int row) {
+      return row < rows && bootStart[row] >= 0;
+    }
+
+    void boot(int row, int time) {
+      ensureRow(row);
+      if (bootStart[row] < 0) {
+        bootStart[row] = time;
+        used[row] = true;
+      }
+    }
+
+    void endRental(int row, int time) {
+      if (!isRented(row)) {
+        return;
+      }
+      ServerXML type = catalogue.get(serverType[row]);
+      if (type != null) {
+        int readyTime = bootStart[row] + type.getBootupTime();
+        rentalCost[row] += (time - bootStart[row]) * type.getHourlyRate() / 3600.0;
+        rentedTime[row] += Math.max(0, time - readyTime);
+      }
+      bootStart[row] = -1;
+    }
+
+    // Rentals still open at the end of the log run until then, at least until boot up completed
+    void finish() {
+      for (int row = 0; row < rows; row++) {
+        if (isRented(row)) {
+          ServerXML type = catalogue.get(serverType[row]);
+          endRental(row, Math.max(endTime,
+              bootStart[row] + ((type != null) ? type.getBootupTime() : 0)));
+        }
+      }
+    }
+  }
+
+  // What a chunk of a state log adds to its run, merged in chunk order
+  private static class Chunk {
+    long jobs = 0;
+    long waitingTime = 0;
+    long executionTime = 0;
+    long turnaroundTime = 0;
+    int endTime = 0;
+    long events = 0;
+    long[] busyCoreTime;
+    int[] rentalEvents = new int[3 * 64];
+    int rentalEventCount = 0;
+
+    Chunk(int rows) {
+      busyCoreTime = new long[rows];
+    }
+
+    void rentalEvent(int kind, int row, int time) {
+      if (rentalEventCount + 3 > rentalEvents.length) {
+        rentalEvents = Arrays.copyOf(rentalEvents, rentalEvents.length * 2);
+      }
+      rentalEvents[rentalEventCount++] = kind;
+      rentalEvents[rentalEventCount++] = row;
+      rentalEvents[rentalEventCount++] = time;
+    }
+  }
+
+  private final Map<String, ServerXML> catalogue = new HashMap<>();
+  private final ExecutorService executor;
+  private final int parallelism;
+
+  public Analyser(List<ServerXML> servers, int parallelism) {
+    for (ServerXML server : servers) {
+      catalogue.put(server.getServerType(), server);
+    }
+    this.parallelism = parallelism;
+    this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "analyser");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Analyse a state log or ds-server log, detected by its first bytes.
+   */
+  Run analyse(String label, String path) {
+    Run run = new Run(label, path, catalogue);
+    long start = System.nanoTime();
+    try {
+      run.bytes = Files.size(Paths.get(path));
+      if (isStateLog(path)) {
+        analyseStateLog(run);
+      } else {
+        analyseServerLog(run);
+      }
+      run.finish();
+    } catch (IOException e) {
+      run.error = "IOException ==> " + e.getMessage();
+    } catch (InterruptedException | ExecutionException e) {
+      run.error = String.valueOf(e.getCause() != null ? e.getCause() : e);
+    }
+    run.nanos = System.nanoTime() - start;
+    return run;
+  }
+
+  public void close() {
+    executor.shutdown();
+  }
+
+  private static boolean isStateLog(String path) throws IOException {
+    byte[] magic = new byte[STATE_LOG_MAGIC.length];
+    try (InputStream in = new FileInputStream(path)) {
+      return in.readNBytes(magic, 0, magic.length) == magic.length
+          && Arrays.equals(magic, STATE_LOG_MAGIC);
+    }
+  }
+
+  // ################
+  // ## State logs ##
+  // ################
+
+  private void analyseStateLog(Run run)
+      throws IOException, InterruptedException, ExecutionException {
+    // The SERVERS records at the start of the log name the rows
+    try (StateLog.Reader record = new StateLog.Reader(run.path, 0, Long.MAX_VALUE)) {
+      boolean servers = false;
+      while (record.next()) {
+        if (record.type != StateLog.SERVERS) {
+          if (servers) {
+            break;
+          }
+          continue;
+        }
+        servers = true;
+        for (int i = 0; i < record.count; i++) {
+          run.defineRow(record.row + i, record.serverType);
+        }
+      }
+    }
+
+    // Chunks are analysed in parallel and merged in order, with a bounded number in flight
+    long segments = StateLog.segmentCount(run.path);
+    int rows = run.rows;
+    ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+    for (long first = 0; first < segments; first += CHUNK_SEGMENTS) {
+      long from = first * StateLog.SEGMENT_SIZE;
+      long to = Math.min(first + CHUNK_SEGMENTS, segments) * StateLog.SEGMENT_SIZE;
+      inFlight.add(executor.submit(() -> analyseChunk(run.path, from, to, rows)));
+      if (inFlight.size() >= 2 * parallelism) {
+        merge(run, inFlight.poll().get());
+      }
+    }
+    while (!inFlight.isEmpty()) {
+      merge(run, inFlight.poll().get());
+    }
+  }
+
+  private static Chunk analyseChunk(String path, long from, long to, int rows)
+      throws IOException {
+    Chunk chunk = new Chunk(rows);
+    try (StateLog.Reader record = new StateLog.Reader(path, from, to)) {
+      while (record.next()) {
+        chunk.events++;
+        chunk.endTime = Math.max(chunk.endTime, record.time);
+        switch (record.type) {
+          case StateLog.SCHD:
+            if (record.boot) {
+              chunk.rentalEvent(BOOT, record.row, record.time);
+            }
+            break;
+          case StateLog.JCPL:
+            // Completions of jobs the client never saw start are left out
+            if (record.submitTime < 0 || record.startTime < 0) {
+              break;
+            }
+            chunk.jobs++;
+            chunk.waitingTime += record.startTime - record.submitTime;
+            chunk.executionTime += record.time - record.startTime;
+            chunk.turnaroundTime += record.time - record.submitTime;
+            if (record.row >= 0) {
+              if (record.row >= chunk.busyCoreTime.length) {
+                chunk.busyCoreTime = Arrays.copyOf(chunk.busyCoreTime,
+                    Math.max(record.row + 1, chunk.busyCoreTime.length * 2));
+              }
+              chunk.busyCoreTime[record.row] +=
+                  (long) record.core * (record.time - record.startTime);
+            }
+            break;
+          case StateLog.TERM:
+          case StateLog.RESF:
+            chunk.rentalEvent(END, record.row, record.time);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return chunk;
+  }
+
+  private static void merge(Run run, Chunk chunk) {
+    run.jobs += chunk.jobs;
+    run.waitingTime += chunk.waitingTime;
+    run.executionTime += chunk.executionTime;
+    run.turnaroundTime += chunk.turnaroundTime;
+    run.endTime = Math.max(run.endTime, chunk.endTime);
+    run.events += chunk.events;
+    for (int row = 0; row < chunk.busyCoreTime.length; row++) {
+      if (chunk.busyCoreTime[row] != 0) {
+        run.ensureRow(row);
+        run.busyCoreTime[row] += chunk.busyCoreTime[row];
+      }
+    }
+    for (int i = 0; i < chunk.rentalEventCount; i += 3) {
+      if (chunk.rentalEvents[i] == BOOT) {
+        run.boot(chunk.rentalEvents[i + 1], chunk.rentalEvents[i + 2]);
+      } else {
+        run.endRental(chunk.rentalEvents[i + 1], chunk.rentalEvents[i + 2]);
+      }
+    }
+  }
+
+  // #################
+  // ## Server logs ##
+  // #################
+
+  /**
+   * Stream a ds-server log: the submit time and cores of a job come from its "SENT JOBN/JOBP",
+   * its start and end from the "t: ... job ... RUNNING/COMPLETED" lines, and rentals start with a
+   * "RCVD SCHD" to a server that is not rented and end with "RCVD TERM" or "SENT RESF".
+   */
+  private void analyseServerLog(Run run) throws IOException {
+    Map<String, Integer> rows = new HashMap<>();
+    // Jobs submitted and not completed yet, as (first submit time, cores, start time)
+    Map<Integer, int[]> jobs = new HashMap<>();
+    int time = 0;
+
+    try (InputStream in = new FileInputStream(run.path)) {
+      ProtocolReader line = new ProtocolReader(in);
+      while (line.readLine()) {
+        int count = line.tokenCount();
+        if (count < 2) {
+          continue;
+        }
+
+        if (line.tokenEquals(0, TIME) && count >= 4 && line.tokenEquals(2, JOB)) {
+          run.events++;
+          time = Math.max(time, line.intToken(1));
+          int state = line.tokenIndex(count - 1, JOB_STATES);
+          int[] job = jobs.get(line.intToken(3));
+          if (state < 0 || job == null) {
+            continue;
+          }
+          if (state == RUNNING) {
+            job[2] = time;
+          } else if (state == COMPLETED && job[2] >= 0) {
+            jobs.remove(line.intToken(3));
+            run.complete(serverRow(run, rows, line, count), job[0], job[2], time, job[1]);
+          } else if (state != COMPLETED) {
+            // Killed with its server, and resubmitted
+            job[2] = -1;
+          }
+          continue;
+        }
+
+        boolean sent = line.tokenEquals(0, SENT);
+        if (!sent && !line.tokenEquals(0, RCVD)) {
+          continue;
+        }
+        run.events++;
+        switch (line.tokenIndex(1, MESSAGES)) {
+          case JOBN:
+          case JOBP:
+            // JOBN submitTime jobID estRunTime core memory disk
+            if (count >= 6) {
+              time = Math.max(time, line.intToken(2));
+              int[] job = jobs.computeIfAbsent(line.intToken(3),
+                  jobID -> new int[] {line.intToken(2), 0, -1});
+              job[1] = line.intToken(5);
+            }
+            break;
+          case SCHD:
+            // SCHD jobID serverType serverID
+            if (!sent && count >= 5) {
+              int row = row(run, rows, line.internToken(3), line.intToken(4));
+              run.boot(row, time);
+            }
+            break;
+          case TERM:
+            // TERM serverType serverID
+            if (!sent && count >= 4) {
+              run.endRental(row(run, rows, line.internToken(2), line.intToken(3)), time);
+            }
+            break;
+          case RESF:
+            // RESF serverType serverID time
+            if (sent && count >= 5) {
+              time = Math.max(time, line.intToken(4));
+              run.endRental(row(run, rows, line.internToken(2), line.intToken(3)), time);
+            }
+            break;
+          case JCPL:
+            // JCPL endTime jobID serverType serverID
+            if (sent && count >= 3) {
+              time = Math.max(time, line.intToken(2));
+            }
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    run.endTime = time;
+  }
+
+  // The row of "... on #serverID of server serverType ...", where "#%2d" may split in two tokens
+  private static int serverRow(Run run, Map<String, Integer> rows, ProtocolReader line,
+      int count) {
+    for (int i = 4; i + 1 < count; i++) {
+      if (line.tokenEquals(i, SERVER)) {
+        int idToken = i - 1;
+        while (idToken > 4 && !line.token(idToken).startsWith("#")) {
+          idToken--;
+        }
+        String id = line.token(idToken);
+        int serverID = line.tokenEquals(idToken, HASH) ? line.intToken(idToken + 1)
+            : Integer.parseInt(id.substring(1));
+        return row(run, rows, line.internToken(i + 1), serverID);
+      }
+    }
+    return -1;
+  }
+
+  private static int row(Run run, Map<String, Integer> rows, String serverType, int serverID) {
+    String key = serverType + " " + serverID;
+    Integer row = rows.get(key);
+    if (row == null) {
+      row = rows.size();
+      rows.put(key, row);
+      run.defineRow(row, serverType);
+    }
+    return row;
+  }
+
+  // ############
+  // ## Report ##
+  // ############
+
+  // Metrics of a run by name, in report order, NaN where the catalogue is missing
+  private static Map<String, Double> metrics(Run run) {
+    Map<String, Double> metrics = new LinkedHashMap<>();
+    metrics.put("jobsCompleted", (double) run.jobs);
+    metrics.put("avgWaitingTime", run.jobs > 0 ? (double) run.waitingTime / run.jobs : 0);
+    metrics.put("avgExecutionTime", run.jobs > 0 ? (double) run.executionTime / run.jobs : 0);
+    metrics.put("avgTurnaroundTime", run.jobs > 0 ? (double) run.turnaroundTime / run.jobs : 0);
+    metrics.put("endTime", (double) run.endTime);
+
+    // Per server type: servers used, sum of their utilisations, and cost
+    Map<String, double[]> types = new LinkedHashMap<>();
+    boolean priced = true;
+    for (int row = 0; row < run.rows; row++) {
+      if (!run.used[row]) {
+        continue;
+      }
+      ServerXML type = run.catalogue.get(run.serverType[row]);
+      priced &= type != null;
+      double[] total = types.computeIfAbsent(run.serverType[row], name -> new double[3]);
+      total[0]++;
+      if (type != null && run.rentedTime[row] > 0) {
+        total[1] += (double) run.busyCoreTime[row] / ((long) type.getCores() * run.rentedTime[row]);
+      }
+      total[2] += run.rentalCost[row];
+    }
+
+    double serversUsed = 0;
+    double utilisation = 0;
+    double cost = 0;
+    for (double[] total : types.values()) {
+      serversUsed += total[0];
+      utilisation += total[1];
+      cost += total[2];
+    }
+    metrics.put("serversUsed", serversUsed);
+    metrics.put("avgUtilisation",
+        !priced ? Double.NaN : serversUsed > 0 ? utilisation / serversUsed : 0);
+    metrics.put("totalCost", priced ? cost : Double.NaN);
+    for (Map.Entry<String, double[]> entry : types.entrySet()) {
+      double[] total = entry.getValue();
+      boolean known = run.catalogue.containsKey(entry.getKey());
+      metrics.put("serversUsed." + entry.getKey(), total[0]);
+      metrics.put("avgUtilisation." + entry.getKey(), known ? total[1] / total[0] : Double.NaN);
+      metrics.put("cost." + entry.getKey(), known ? total[2] : Double.NaN);
+    }
+    return metrics;
+  }
+
+  private static void printReport(List<Run> runs, List<Map<String, Double>> metrics,
+      long elapsedNanos) {
+    // Every metric of any run, so runs with different server types line up
+    List<String> names = new ArrayList<>();
+    for (Map<String, Double> runMetrics : metrics) {
+      for (String name : runMetrics.keySet()) {
+        if (!names.contains(name)) {
+          names.add(name);
+        }
+      }
+    }
+
+    System.out.printf("%-28s", "metric");
+    for (Run run : runs) {
+      System.out.printf(" %24s", run.label);
+    }
+    System.out.println();
+    for (String name : names) {
+      System.out.printf("%-28s", name);
+      Double first = metrics.get(0).get(name);
+      for (int i = 0; i < runs.size(); i++) {
+        Double value = metrics.get(i).get(name);
+        String cell = format(value);
+        // Change against the first run
+        if (i > 0 && value != null && first != null && first != 0 && !first.isNaN()
+            && !value.isNaN()) {
+          cell += String.format(Locale.ROOT, " (%+.1f%%)", (value - first) / first * 100);
+        }
+        System.out.printf(" %24s", cell);
+      }
+      System.out.println();
+    }
+
+    long bytes = 0;
+    long events = 0;
+    for (Run run : runs) {
+      if (run.error != null) {
+        System.out.println(run.label + " FAILED ==> " + run.error);
+      }
+      bytes += run.bytes;
+      events += run.events;
+    }
+    System.out.printf(Locale.ROOT, "%n# %d runs, %d events, %.1f MB in %.2f s (%.1f MB/s)%n",
+        runs.size(), events, bytes / 1e6, elapsedNanos / 1e9,
+        bytes / 1e6 / Math.max(elapsedNanos / 1e9, 1e-9));
+  }
+
+  private static String format(Double value) {
+    if (value == null || value.isNaN()) {
+      return "-";
+    }
+    return (value == Math.rint(value) && Math.abs(value) < 1e15) ? String.valueOf(value.longValue())
+        : String.format(Locale.ROOT, Math.abs(value) < 10 ? "%.4f" : "%.2f", value);
+  }
+
+  private static void writeCSV(List<Run> runs, List<Map<String, Double>> metrics, String path) {
+    try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+      out.println("run,path,metric,value");
+      for (int i = 0; i < runs.size(); i++) {
+        for (Map.Entry<String, Double> metric : metrics.get(i).entrySet()) {
+          out.printf(Locale.ROOT, "%s,%s,%s,%s%n", runs.get(i).label, runs.get(i).path,
+              metric.getKey(), metric.getValue().isNaN() ? "" : metric.getValue());
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("IOException ==> " + e.getMessage());
+    }
+  }
+
+  public static void main(String args[]) {
+    String configPath = null;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    String csvPath = null;
+    List<String> inputs = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-c":
+          configPath = args[++i];
+          break;
+        case "-j":
+          parallelism = Math.max(1, Integer.parseInt(args[++i]));
+          break;
+        case "-csv":
+          csvPath = args[++i];
+          break;
+        default:
+          inputs.add(args[i]);
+          break;
+      }
+    }
+    if (inputs.isEmpty()) {
+      System.out.println("Usage ==> java Analyser [-c ds-system.xml] [-j threads] "
+          + "[-csv report.csv] [label=]run.log ...");
+      System.exit(1);
+    }
+
+    List<ServerXML> servers =
+        (configPath != null) ? ServerXML.parse(configPath) : new ArrayList<>();
+    Analyser analyser = new Analyser(servers, parallelism);
+    List<Run> runs = new ArrayList<>();
+    List<Map<String, Double>> metrics = new ArrayList<>();
+    long start = System.nanoTime();
+    for (String input : inputs) {
+      int separator = input.indexOf('=');
+      String path = (separator >= 0) ? input.substring(separator + 1) : input;
+      Run run = analyser.analyse((separator >= 0) ? input.substring(0, separator) : path, path);
+      runs.add(run);
+      metrics.add(metrics(run));
+    }
+    analyser.close();
+
+    printReport(runs, metrics, System.nanoTime() - start);
+    if (csvPath != null) {
+      writeCSV(runs, metrics, csvPath);
+    }
+  }
+}
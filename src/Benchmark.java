@@ -0,0 +1,278 @@
+/**
+ * Micro benchmarks for the client's scheduling algorithms and protocol message parsing.
+ *
+ * <p>
+ * Every benchmark runs a few warmup iterations followed by timed measurement iterations on the
+ * current thread, and reports the throughput (ops/s) together with the allocation rate per
+ * operation, measured with the per-thread allocation counter of the JVM.
+ * </p>
+ *
+ * <p>
+ * Run with "java Benchmark" for every benchmark, "java Benchmark [filter]" for those whose name
+ * contains the filter, and "-o [file]" to also write the results as CSV.
+ * </p>
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import util.*;
+import util.enums.*;
+
+public class Benchmark {
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASUREMENT_ITERATIONS = 5;
+  private static final long ITERATION_NANOS = 500_000_000L;
+  private static final int BATCH_SIZE = 64;
+  private static final int[] SERVER_COUNTS = {10, 100, 1000, 10000, 100000};
+  private static final int SHARDS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  private static final String GETS_RECORD = "medium 3 active 120 4 16000 64000 0 1\n";
+  private static final String JOBN_MESSAGE = "JOBN 2142 172 8734 2 1400 2500\n";
+
+  // Keeps results alive so the JIT cannot drop the measured work
+  static volatile Object sink;
+
+  private final String filter;
+  private final List<String> results = new ArrayList<>();
+
+  private Benchmark(String filter) {
+    this.filter = filter;
+  }
+
+  // #####################################
+  // ## Scheduling Algorithm Benchmarks ##
+  // #####################################
+
+  private void benchmarkAlgorithms() {
+    for (int numServers : SERVER_COUNTS) {
+      benchmarkAlgorithm("algorithm.ff", Algorithm.FF, numServers);
+      benchmarkAlgorithm("algorithm.bf", Algorithm.BF, numServers);
+      benchmarkAlgorithm("algorithm.wf", Algorithm.WF, numServers);
+      benchmarkAlgorithm("algorithm.cf", Algorithm.CF, numServers);
+      benchmarkAlgorithm("algorithm.ft.local", Algorithm.FT, numServers);
+      benchmarkAlgorithm("algorithm.ft.sharded", Algorithm.FT, numServers);
+    }
+  }
+
+  /**
+   * Each operation schedules a job with the algorithm and completes the job scheduled one window
+   * earlier, so the synthetic model stays in a steady, partly loaded state.
+   */
+  private void benchmarkAlgorithm(String name, Algorithm algo, int numServers) {
+    if (!name.contains(filter)) {
+      return;
+    }
+
+    Random random = new Random(numServers);
+    ServerState serverState = syntheticServerState(numServers);
+    Client client = new Client(algo);
+    client.setServerState(serverState);
+    // Decide FT purely on local estimates, EJWT would need a ds-server
+    client.setEJWTConfirmCount(0);
+    if (name.endsWith(".sharded")) {
+      client.setShards(SHARDS);
+    }
+
+    Job[] jobs = new Job[4096];
+    for (int i = 0; i < jobs.length; i++) {
+      int core = 1 << random.nextInt(4);
+      jobs[i] = new Job(-1, 0, 1 + random.nextInt(10000), core,
+          500 + random.nextInt(core * 3500), 1000 + random.nextInt(core * 15000));
+    }
+
+    int window = Math.max(numServers / 2, 1);
+    int[] nextJobID = {0};
+    measure(name, numServers, () -> {
+      int jobID = nextJobID[0]++;
+      Job job = jobs[jobID % jobs.length];
+      job.jobID = jobID;
+
+      Server server = client.chooseServer(job);
+      serverState.scheduleJob(job, server.serverType, server.serverID);
+      if (jobID >= window) {
+        serverState.completeJob(jobID - window);
+      }
+      sink = server;
+    });
+    if (client.getShardedScan() != null) {
+      client.getShardedScan().close();
+    }
+  }
+
+  private static ServerState syntheticServerState(int numServers) {
+    List<ServerXML> catalogue = new ArrayList<>();
+    String[] types = {"tiny", "small", "medium", "large", "xlarge"};
+    for (int i = 0; i < types.length; i++) {
+      int cores = 1 << i;
+      catalogue.add(new ServerXML(types[i], numServers / types.length + 1, 60, 0.1f * cores,
+          cores, cores * 4000, cores * 16000));
+    }
+
+    List<Server> allServers = new ArrayList<>();
+    for (int i = 0; i < numServers; i++) {
+      int cores = 1 << (i % types.length);
+      allServers.add(new Server(types[i % types.length], i / types.length, ServerState.IDLE, 0,
+          cores, cores * 4000, cores * 16000, 0, 0));
+    }
+    return new ServerState(allServers, catalogue);
+  }
+
+  // ################################
+  // ## Message Parsing Benchmarks ##
+  // ################################
+
+  private void benchmarkParsing() {
+    if ("parse.gets.codec".contains(filter)) {
+      ProtocolReader reader = new ProtocolReader(new RepeatingInputStream(GETS_RECORD));
+      Server server = new Server();
+      measure("parse.gets.codec", 1, () -> {
+        readLine(reader);
+        Server.parseServerInfo(reader, server);
+        sink = server;
+      });
+    }
+
+    if ("parse.gets.split".contains(filter)) {
+      measure("parse.gets.split", 1, () -> {
+        sink = Server.parseServerInfo(GETS_RECORD.trim().split("\\s++"));
+      });
+    }
+
+    if ("parse.jobn.codec".contains(filter)) {
+      ProtocolReader reader = new ProtocolReader(new RepeatingInputStream(JOBN_MESSAGE));
+      Job job = new Job();
+      measure("parse.jobn.codec", 1, () -> {
+        readLine(reader);
+        Job.parseJobInfo(reader, job);
+        sink = job;
+      });
+    }
+
+    if ("parse.jobn.split".contains(filter)) {
+      measure("parse.jobn.split", 1, () -> {
+        sink = Job.parseJobInfo(JOBN_MESSAGE.trim().split("\\s+"));
+      });
+    }
+  }
+
+  private static void readLine(ProtocolReader reader) {
+    try {
+      reader.readLine();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Endless stream of the same message, standing in for a socket
+  private static class RepeatingInputStream extends InputStream {
+    private final byte[] message;
+    private int pos = 0;
+
+    RepeatingInputStream(String message) {
+      this.message = message.getBytes();
+    }
+
+    @Override
+    public int read() {
+      int b = message[pos];
+      pos = (pos + 1) % message.length;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      for (int i = 0; i < length; i++) {
+        buffer[offset + i] = message[pos];
+        pos = (pos + 1) % message.length;
+      }
+      return length;
+    }
+  }
+
+  // #############
+  // ## Harness ##
+  // #############
+
+  private void measure(String name, int param, Runnable operation) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      runIteration(operation);
+    }
+
+    double totalOpsPerSecond = 0;
+    double totalBytesPerOp = 0;
+    for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+      long allocatedBefore = allocatedBytes();
+      long start = System.nanoTime();
+      long ops = runIteration(operation);
+      long elapsed = System.nanoTime() - start;
+      long allocated = allocatedBytes() - allocatedBefore;
+
+      totalOpsPerSecond += ops * 1e9 / elapsed;
+      totalBytesPerOp += (allocatedBefore < 0) ? -1 : (double) allocated / ops;
+    }
+
+    double opsPerSecond = totalOpsPerSecond / MEASUREMENT_ITERATIONS;
+    double bytesPerOp = totalBytesPerOp / MEASUREMENT_ITERATIONS;
+    System.out.printf("%-22s %8d %16.1f %12.1f%n", name, param, opsPerSecond, bytesPerOp);
+    results.add(String.format("%s,%d,%.1f,%.1f", name, param, opsPerSecond, bytesPerOp));
+  }
+
+  private static long runIteration(Runnable operation) {
+    long ops = 0;
+    long deadline = System.nanoTime() + ITERATION_NANOS;
+    while (System.nanoTime() < deadline) {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        operation.run();
+      }
+      ops += BATCH_SIZE;
+    }
+    return ops;
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private void writeCSV(String path) {
+    try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+      out.println("benchmark,servers,ops_per_second,bytes_per_op");
+      for (String result : results) {
+        out.println(result);
+      }
+    } catch (IOException e) {
+      System.err.println("An error occurred while writing benchmark results: " + e.getMessage());
+    }
+  }
+
+  public static void main(String args[]) {
+    String filter = "";
+    String csvPath = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-o") && i + 1 < args.length) {
+        csvPath = args[++i];
+      } else {
+        filter = args[i];
+      }
+    }
+
+    Benchmark benchmark = new Benchmark(filter);
+    System.out.printf("%-22s %8s %16s %12s%n", "Benchmark", "Servers", "ops/s", "B/op");
+    benchmark.benchmarkAlgorithms();
+    benchmark.benchmarkParsing();
+
+    if (csvPath != null) {
+      benchmark.writeCSV(csvPath);
+    }
+  }
+}
@@ -11,35 +11,123 @@
  * </p>
  */
 
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Consumer;
 import util.*;
 import util.Server;
 import util.Job;
 import util.enums.*;
 
-public class Client {
+public class Client implements SchedulingContext {
+  private static final ServerCommand[] SERVER_COMMAND_VALUES = ServerCommand.values();
+  private static final byte[][] SERVER_COMMANDS = ProtocolReader.encode(SERVER_COMMAND_VALUES);
+  // Smaller shards cost more in handing the scan over than they save
+  private static final int MIN_SHARD_ROWS = 512;
+
   private int currentDSServerTime = -1;
 
   private ClientServerConnection serverCommunication;
-  private Algorithm currAlgorithm;
+  private SchedulingPolicy policy;
+  private EnumSet<StateRequirement> policyRequirements;
+  private final Properties policyOptions = new Properties();
   private Job currJob;
   private List<ServerXML> serverXML = null;
+  private String serverXMLPath = "ds-system.xml";
+  // Directory of parsed catalogues keyed by ds-system.xml hash, null always parses the XML
+  private String catalogueCacheDir = null;
+
+  // Local shadow of the server states, seeded on the first job
+  private ServerState serverState = null;
+  private int verifyInterval = 0;
+  private int jobsScheduled = 0;
+
+  // Decision metrics, only recorded when enabled
+  private Metrics metrics = null;
+  private String metricsFormat = null;
+  private int metricsInterval = 0;
+
+  // Reusable GETS record holders
+  private final List<Server> serverRecordPool = new ArrayList<>();
+  // Holder for the records of LSTJ
+  private final Job listedJob = new Job();
+  private final List<Server> serverRecords = new ArrayList<>();
+
+  // Jobs whose estimated wait exceeds the threshold are parked in the global queue, -1 never
+  private int queueWaitThreshold = -1;
+  // Mirror of the global queue, a job's position is its qID
+  private final List<Job> queuedJobs = new ArrayList<>();
+
+  // Learns actual run times from JCPL for the local estimates, null uses the job estimates
+  private RuntimePredictor runtimePredictor = null;
+
+  // Round-trips the rebalancer may spend per JCPL, 0 disables migration
+  private int rebalanceBudget = 0;
+
+  // Jobs submitted in the same second are gathered up to this size and scheduled jointly
+  private int batchSize = 0;
+  private final List<Job> batch = new ArrayList<>();
+  private int batchSubmitTime = -1;
+
+  // Ask for the next event as soon as nothing else is left to send, before the local bookkeeping
+  private boolean pipelineRedy = false;
+  // REDY already sent for the next event
+  private boolean redyPending = false;
+
+  // Idle servers are terminated after this multiple of their break-even idle time, 0 never
+  private double idleHoldFactor = 0;
+  private double idleDelayWeight = 1;
+  private IdleServerController idleServerController = null;
+  private int[] dueServerRows = null;
+
+  // Local scans are split over this many threads on large fleets, 1 scans on the client thread
+  private int shards = 1;
+  private ShardedScan shardedScan = null;
+
+  // Event log and snapshots of the model for a restart, null logs nothing
+  private String stateLogPath = null;
+  private boolean resumeStateLog = false;
+  private int snapshotInterval = 10000;
+  private StateLog stateLog = null;
+  // First submit time of the logged jobs that ds-server resubmits, until they complete
+  private final Map<Integer, Integer> firstSubmitTimes = new HashMap<>();
+
+  // Servers between a RESF and their RESR
+  private int unavailableServers = 0;
+  // CHKQs in a row that scheduled no job, and the jobs scheduled at the last one
+  private int idleQueueChecks = 0;
+  private int jobsScheduledAtQueueCheck = -1;
+  // Servers that rejected a SCHD, as "serverType serverID", whose RESR resubmits the queue when
+  // there is no model to match queued jobs with, "*" for jobs no server was available for
+  private final Set<String> rejectingServers = new HashSet<>();
 
 
   public Client() {
-    serverCommunication = new ClientServerConnection();
-    currAlgorithm = Algorithm.CF;
-    currJob = null;
+    this(Algorithm.CF);
   }
 
   public Client(Algorithm algo) {
-    serverCommunication = new ClientServerConnection();
-    currAlgorithm = algo;
-    currJob = null;
+    this(algo, new ClientServerConnection());
   }
 
-  public void run() {
+  public Client(Algorithm algo, ClientServerConnection connection) {
+    serverCommunication = connection;
+    currJob = new Job();
+    if (!setPolicy(algo.name().toLowerCase(Locale.ROOT))) {
+      throw new IllegalArgumentException("No policy for algorithm ==> " + algo);
+    }
+  }
+
+  // Runs the whole session and returns the exit status
+  public int run() {
     // Estabalish connection with ds-server
     serverCommunication.connect();
 
@@ -48,181 +136,1039 @@ public class Client {
     serverCommunication.recieve();
     serverCommunication.send(Command.AUTH, System.getProperty("user.name"));
     serverCommunication.recieve();
+    openStateLog();
 
 
-    // Read ds-system.xml
-    serverXML = ServerXML.parse("ds-system.xml");
-
-
-    while (!(serverCommunication.getReceivedMessage().equals(ServerCommand.NONE.toString()))) {
-      // Signal ds-server for a job
-      serverCommunication.send(Command.REDY);
-      serverCommunication.recieve();
-
-      String[] splittedMsg = serverCommunication.getReceivedMessage().split("\\s+");
-      ServerCommand receivedCommand = ServerCommand.valueOf(splittedMsg[0]);
+    ServerCommand receivedCommand = null;
+    boolean sessionEnded = false;
+    while (!sessionEnded) {
+      // Signal ds-server for a job, unless that went out early
+      if (!redyPending) {
+        serverCommunication.send(Command.REDY);
+      }
+      redyPending = false;
+      ProtocolReader receivedMsg = serverCommunication.recieveMessage();
+      receivedCommand = parseServerCommand(receivedMsg);
+      if (serverCommunication.isEndOfStream()) {
+        System.out.println("Connection closed by ds-server");
+        break;
+      }
 
       switch (receivedCommand) {
         case JOBP:
-
         case JOBN:
-          currentDSServerTime = Integer.parseInt(splittedMsg[1]);
-          handleJob(splittedMsg);
+          currentDSServerTime = receivedMsg.intToken(1);
+          if (!Job.parseJobInfo(receivedMsg, currJob)) {
+            break;
+          }
+          if (stateLog != null) {
+            stateLog.logJob(currentDSServerTime, currJob);
+          }
+          if (batchSize > 1 && receivedCommand == ServerCommand.JOBN && decidesLocally()) {
+            batchJob();
+          } else {
+            flushBatch();
+            handleJob(receivedCommand == ServerCommand.JOBP);
+          }
           break;
         case JCPL:
           // job completion details, i.e. JCPL endTime jobID serverType serverID
-          currentDSServerTime = Integer.parseInt(splittedMsg[1]);
+          int completedJobID;
+          String serverType;
+          int serverID;
+          try {
+            currentDSServerTime = receivedMsg.intToken(1);
+            completedJobID = receivedMsg.intToken(2);
+            serverType = receivedMsg.token(3);
+            serverID = receivedMsg.intToken(4);
+          } catch (ArrayIndexOutOfBoundsException e) {
+            System.out.println("ArrayIndexOutOfBoundsException ==> " + e.getMessage());
+            break;
+          } catch (NumberFormatException e) {
+            System.out.println("NumberFormatException ==> " + e.getMessage());
+            break;
+          }
+          if (pipelineRedy && batch.isEmpty() && queuedJobs.isEmpty() && rebalanceBudget == 0
+              && !terminationDue()) {
+            // Nothing below talks to ds-server, so the model is updated while it works
+            serverCommunication.send(Command.REDY);
+            redyPending = true;
+          }
+          if (serverState != null) {
+            // The server already freed the job's resources for the batch
+            serverState.advanceTime(currentDSServerTime);
+            Job completedJob = serverState.completeJob(completedJobID);
+            if (runtimePredictor != null && completedJob != null && completedJob.startTime >= 0) {
+              runtimePredictor.record(completedJob, currentDSServerTime - completedJob.startTime);
+            }
+            int row = serverState.getServerRow(serverType, serverID);
+            if (idleServerController != null && row >= 0) {
+              idleServerController.afterComplete(row, currentDSServerTime);
+            }
+            if (stateLog != null) {
+              Integer firstSubmitTime = firstSubmitTimes.remove(completedJobID);
+              stateLog.logCompletion(currentDSServerTime, completedJobID, row,
+                  (firstSubmitTime != null) ? firstSubmitTime
+                      : (completedJob != null) ? completedJob.submitTime : -1,
+                  (completedJob != null) ? completedJob.startTime : -1,
+                  (completedJob != null) ? completedJob.reqCore : 0);
+            }
+          }
+          flushBatch();
+          if (serverState != null) {
+            // Freed resources go to queued jobs first, then to migrated ones
+            if ((queuedJobs.isEmpty() || drainQueue(serverType, serverID) == 0)
+                && rebalanceBudget > 0) {
+              rebalance(serverType, serverID);
+            }
+          }
+          break;
+        case RESF:
+        case RESR:
+          handleServerFailure(receivedMsg, receivedCommand == ServerCommand.RESF);
+          break;
+        case CHKQ:
+          // Nothing but the global queue is left, so resubmit its head
+          flushBatch();
+          if (queueStuck()) {
+            reportUnscheduledJobs();
+            sessionEnded = true;
+            break;
+          }
+          dequeueJob(0);
+          break;
         case NONE:
+          // Held jobs are scheduled before the session ends, and then run or wait in the queue
+          int scheduledBefore = jobsScheduled;
+          flushBatch();
+          if (jobsScheduled == scheduledBefore && queuedJobs.isEmpty()) {
+            reportUnscheduledJobs();
+            sessionEnded = true;
+          }
+          break;
         default:
+          flushBatch();
           break;
       }
+
+      // Servers left idle for too long are released before the next event, unless it is asked for
+      if (idleServerController != null && !redyPending && receivedCommand != ServerCommand.NONE
+          && batch.isEmpty() && queuedJobs.isEmpty()) {
+        terminateIdleServers();
+      }
+      // Held jobs are not in the model yet, so snapshots are taken between batches
+      if (stateLog != null && serverState != null && batch.isEmpty()
+          && stateLog.getRecordsSinceSnapshot() >= snapshotInterval) {
+        stateLog.snapshot(serverState, jobsScheduled);
+      }
     }
     // Exit gracefully
-    System.exit(serverCommunication.close());
+    if (shardedScan != null) {
+      shardedScan.close();
+    }
+    if (stateLog != null) {
+      stateLog.close();
+    }
+    int exit = serverCommunication.close();
+    if (metrics != null) {
+      printMetrics();
+    }
+    return exit;
   }
 
-  private void handleJob(String jobInfo[]) {
-    Server chosenServer = null;
-    currJob = Job.parseJobInfo(jobInfo);
+  private void handleJob(boolean resubmitted) {
+    if (metrics != null) {
+      metrics.beginJob();
+    }
 
-    switch (currAlgorithm) {
-      case FC:
-        chosenServer = firstCapableAlgorithm(currJob.reqCore, currJob.reqMemory, currJob.reqDisk);
-        break;
-      case FF:
-      case BF:
-      case WF:
-      case CF:
-        chosenServer = closestFitAlgorithm(currJob.reqCore, currJob.reqMemory, currJob.reqDisk);
-        break;
-      case FT:
-        chosenServer =
-            fastestTurnaroundAlgorithm(currJob.reqCore, currJob.reqMemory, currJob.reqDisk);
-        break;
-      default:
-        chosenServer =
-            fastestTurnaroundAlgorithm(currJob.reqCore, currJob.reqMemory, currJob.reqDisk);
-        break;
+    if (usesServerState() || idleHoldFactor > 0 || stateLog != null) {
+      initServerState();
+      serverState.advanceTime(currentDSServerTime);
+    }
+    // A JOBP of a job in the model means ds-server dropped its SCHD, e.g. one sent as the client
+    // crashed, so it is scheduled again
+    if (resubmitted && serverState != null && serverState.unscheduleJob(currJob.jobID)
+        && stateLog != null) {
+      stateLog.logUnschedule(currentDSServerTime, currJob.jobID, false);
+    }
+
+    scheduleJob(chooseServer(currJob), resubmitted);
+  }
+
+  // Send the decision for currJob, or queue it
+  private void scheduleJob(Server chosenServer, boolean resubmitted) {
+    // Resubmitted jobs are always scheduled, so a job is queued at most once per JCPL
+    if (chosenServer != null && !resubmitted && shouldEnqueue(chosenServer) && enqueueJob()) {
+      chosenServer = null;
+    }
+    // Every server that can run the job has failed, or none is free in the model, so it waits in
+    // the queue for a RESR or JCPL
+    if (chosenServer == null && enqueueJob()) {
+      rejectingServers.add("*");
     }
 
     // SCHD
     if (chosenServer != null) {
+      jobsScheduled++;
+      boolean verify =
+          serverState != null && verifyInterval > 0 && jobsScheduled % verifyInterval == 0;
+
+      // The next REDY goes out with the SCHD unless a verify has to come first
+      logSchedule(currJob, chosenServer);
+      serverCommunication.setAutoFlush(false);
       serverCommunication.send(Command.SCHD,
           currJob.jobID + " " + chosenServer.serverType + " " + chosenServer.serverID);
-      serverCommunication.recieve();
+      // A SCHD may be rejected while servers are down, and the job is then queued before REDY.
+      // Only a decision on the model is followed by REDY, so a rejected job can be held back
+      if (pipelineRedy && !verify && !terminationDue() && unavailableServers == 0
+          && decidesLocally()) {
+        serverCommunication.send(Command.REDY);
+        redyPending = true;
+      }
+      serverCommunication.setAutoFlush(true);
+
+      // Update the model while ds-server handles the SCHD
+      if (serverState != null) {
+        scheduleInModel(currJob, chosenServer);
+      }
+      if (!checkScheduled(currJob, chosenServer, serverCommunication.recieve())) {
+        if (redyPending) {
+          // ENQJ would reach ds-server after the REDY, so the job is held until its answer is
+          // handled, then queued if it is still the last submitted job or scheduled again
+          batch.add(new Job(currJob.jobID, currJob.submitTime, currJob.estRunTime,
+              currJob.reqCore, currJob.reqMemory, currJob.reqDisk));
+          batchSubmitTime = currentDSServerTime;
+        } else {
+          // e.g. a policy that ignores the server states, the queue holds the job until a RESR
+          enqueueJob();
+        }
+      }
+      if (verify) {
+        verifyServerState();
+      }
+    }
+
+    if (metrics != null) {
+      metrics.endJob(chosenServer);
+      if (metricsInterval > 0 && metrics.getJobs() % metricsInterval == 0) {
+        printMetrics();
+      }
+    }
+  }
+
+  // ####################
+  // ## Batch Schedule ##
+  // ####################
+
+  /**
+   * Jobs that would have to wait behind running jobs anyway are held back until the next event
+   * with a later time, so the jobs of one simulated second that cannot start are assigned
+   * together. Holding them costs no simulated time, as they could not start before a JCPL.
+   * Everything else, including jobs that would boot a server, is scheduled straight away.
+   */
+  private void batchJob() {
+    if (!batch.isEmpty() && currentDSServerTime != batchSubmitTime) {
+      flushBatch();
+    }
+    if (metrics != null) {
+      metrics.beginJob();
+    }
+    initServerState();
+    serverState.advanceTime(currentDSServerTime);
+    Server chosenServer = chooseServer(currJob);
+    boolean wouldWait = chosenServer != null
+        && (chosenServer.status.equals(ServerState.ACTIVE)
+            || chosenServer.status.equals(ServerState.IDLE))
+        && serverState.estimateWaitTime(chosenServer, currJob) > 0;
+    if (!wouldWait) {
+      // The decision stands, as nothing changed since it was made
+      scheduleJob(chosenServer, false);
+      return;
+    }
+
+    batch.add(new Job(currJob.jobID, currJob.submitTime, currJob.estRunTime, currJob.reqCore,
+        currJob.reqMemory, currJob.reqDisk));
+    batchSubmitTime = currentDSServerTime;
+    if (batch.size() >= batchSize) {
+      flushBatch();
+    }
+  }
+
+  /**
+   * Schedule the held jobs jointly: largest core, memory and disk demand first onto the current
+   * availability, i.e. a decreasing bin-packing with the current algorithm. The SCHD messages go
+   * out back-to-back in one round-trip.
+   */
+  private void flushBatch() {
+    if (batch.isEmpty()) {
+      return;
+    }
+    Job receivedJob = currJob;
+
+    batch.sort((a, b) -> (a.reqCore != b.reqCore) ? Integer.compare(b.reqCore, a.reqCore)
+        : (a.reqMemory != b.reqMemory) ? Integer.compare(b.reqMemory, a.reqMemory)
+        : Integer.compare(b.reqDisk, a.reqDisk));
+    serverState.advanceTime(currentDSServerTime);
+
+    int scheduledBefore = jobsScheduled;
+    List<Job> scheduledJobs = new ArrayList<>();
+    List<Server> chosenServers = new ArrayList<>();
+    List<Job> heldJobs = new ArrayList<>();
+    serverCommunication.setAutoFlush(false);
+    for (Job job : batch) {
+      if (metrics != null) {
+        metrics.beginJob();
+      }
+
+      Server chosenServer = chooseServer(job);
+      if (chosenServer == null) {
+        // Every server that can run the job has failed, or the policy found none
+        heldJobs.add(job);
+      }
+      if (chosenServer != null) {
+        logSchedule(job, chosenServer);
+        serverCommunication.send(Command.SCHD,
+            job.jobID + " " + chosenServer.serverType + " " + chosenServer.serverID);
+        scheduledJobs.add(job);
+        // Only policies deciding on the model batch, and its records belong to their rows
+        chosenServers.add(chosenServer);
+
+        jobsScheduled++;
+        scheduleInModel(job, chosenServer);
+      }
+
+      if (metrics != null) {
+        metrics.endJob(chosenServer);
+      }
+    }
+
+    serverCommunication.setAutoFlush(true);
+    for (int i = 0; i < scheduledJobs.size(); i++) {
+      if (!checkScheduled(scheduledJobs.get(i), chosenServers.get(i),
+          serverCommunication.recieve())) {
+        heldJobs.add(scheduledJobs.get(i));
+      }
+    }
+    batch.clear();
+    // ENQJ only parks the last submitted job, so any other job that was rejected or that no server
+    // is available for is held until a later flush, at the latest the NONE ending the session
+    for (Job job : heldJobs) {
+      currJob = job;
+      if (job.jobID == receivedJob.jobID && enqueueJob()) {
+        rejectingServers.add("*");
+      } else {
+        batch.add(job);
+      }
+    }
+    currJob = receivedJob;
+
+    if (verifyInterval > 0 && scheduledBefore / verifyInterval != jobsScheduled / verifyInterval) {
+      verifyServerState();
+    }
+  }
+
+  /**
+   * Whether every queued job was resubmitted by CHKQ since a job was last scheduled, while no
+   * server is down. None of them can be scheduled then, and CHKQ would go on forever.
+   */
+  private boolean queueStuck() {
+    if (jobsScheduled != jobsScheduledAtQueueCheck || unavailableServers > 0) {
+      jobsScheduledAtQueueCheck = jobsScheduled;
+      idleQueueChecks = 0;
+      return false;
+    }
+    return ++idleQueueChecks > queuedJobs.size();
+  }
+
+  // Jobs the session ends without, held back or queued
+  private void reportUnscheduledJobs() {
+    List<Integer> jobIDs = new ArrayList<>();
+    for (Job job : batch) {
+      jobIDs.add(job.jobID);
+    }
+    for (Job job : queuedJobs) {
+      jobIDs.add(job.jobID);
+    }
+    if (!jobIDs.isEmpty()) {
+      System.out.println("Unscheduled jobs ==> " + jobIDs);
+    }
+  }
+
+  // A rejected SCHD is taken back out of the model
+  private boolean checkScheduled(Job job, Server server, String response) {
+    if ("OK".equals(response)) {
+      return true;
+    }
+    System.out.println("SCHD rejected ==> job " + job.jobID + " to " + server.serverType + " "
+        + server.serverID + ": " + response);
+    jobsScheduled--;
+    rejectingServers.add(server.serverType + " " + server.serverID);
+    if (serverState != null) {
+      serverState.unscheduleJob(job.jobID);
+    }
+    if (stateLog != null) {
+      stateLog.logUnschedule(currentDSServerTime, job.jobID, true);
+      firstSubmitTimes.putIfAbsent(job.jobID, job.submitTime);
+    }
+    return false;
+  }
+
+  // Whether the policy chooses a server on the local model, without talking to ds-server
+  private boolean decidesLocally() {
+    return policyRequirements.contains(StateRequirement.SERVER_STATE)
+        && !policyRequirements.contains(StateRequirement.SERVER_QUERIES);
+  }
+
+  // Run the policy for a job, without sending the decision
+  Server chooseServer(Job job) {
+    currJob = job;
+    return policy.schedule(job, this);
+  }
+
+  // #######################
+  // ## Scheduling Policy ##
+  // #######################
+
+  /**
+   * Switch to the named policy, also in the middle of a session. Returns false, keeping the
+   * current policy, if no policy has the name.
+   *
+   * <p>
+   * The server-state model is seeded on the first job that needs it. When that happens mid-session
+   * the model does not know the jobs scheduled before, until a verify ('-v') resyncs it.
+   * </p>
+   */
+  public boolean setPolicy(String name) {
+    SchedulingPolicy newPolicy = SchedulingPolicy.load(name);
+    if (newPolicy == null) {
+      System.out.println("Unknown policy ==> " + name + ", available: " + SchedulingPolicy.names());
+      return false;
+    }
+    setPolicy(newPolicy);
+    return true;
+  }
+
+  public void setPolicy(SchedulingPolicy newPolicy) {
+    newPolicy.configure(policyOptions);
+    policy = newPolicy;
+    policyRequirements = newPolicy.requires();
+  }
+
+  public SchedulingPolicy getPolicy() {
+    return policy;
+  }
+
+  // Option for the current and any later policy, e.g. "ejwt.confirm" or "cost.weight"
+  public void setPolicyOption(String key, String value) {
+    policyOptions.setProperty(key, value);
+    setPolicy(policy);
+  }
+
+  private boolean usesServerState() {
+    return policyRequirements.contains(StateRequirement.SERVER_STATE);
+  }
+
+  @Override
+  public List<ServerXML> getCatalogue() {
+    if (serverXML == null) {
+      // Read ds-system.xml
+      serverXML = (catalogueCacheDir != null)
+          ? ServerXML.parseCached(serverXMLPath, catalogueCacheDir)
+          : ServerXML.parse(serverXMLPath);
+    }
+    return serverXML;
+  }
+
+  @Override
+  public ServerState getServerState() {
+    return serverState;
+  }
+
+  @Override
+  public ShardedScan getShardedScan() {
+    if (shardedScan == null && shards > 1 && serverState != null) {
+      shardedScan = new ShardedScan(serverState, shards, MIN_SHARD_ROWS);
+      if (shardedScan.getShardCount() == 1) {
+        // Too few servers to split, the policies' own loops are faster on one thread
+        shardedScan = null;
+        shards = 1;
+      }
+    }
+    return shardedScan;
+  }
+
+  @Override
+  public int getCurrentTime() {
+    return currentDSServerTime;
+  }
+
+  @Override
+  public List<Server> getServers(GETSMode mode, int reqCore, int reqMemory, int reqDisk) {
+    return getServerInfo(mode, reqCore, reqMemory, reqDisk);
+  }
+
+  @Override
+  public int[] getEstimatedWaitingTimes(List<Server> servers) {
+    // i.e. EJWT serverType serverID
+    List<String> ejwtParams = new ArrayList<>(servers.size());
+    for (Server server : servers) {
+      ejwtParams.add(server.serverType + " " + server.serverID);
+    }
+    return serverCommunication.sendPipelined(Command.EJWT, ejwtParams);
+  }
+
+  /**
+   * Record decision metrics, printed as 'json' or 'csv' at QUIT and, if the interval is positive,
+   * every interval jobs.
+   */
+  public void setMetrics(String format, int interval) {
+    metrics = new Metrics(serverCommunication);
+    metrics.setRuntimePredictor(runtimePredictor);
+    metricsFormat = format;
+    metricsInterval = interval;
+  }
+
+  private void printMetrics() {
+    System.out.println(metricsFormat.equals("csv") ? metrics.toCSV() : metrics.toJSON());
+  }
+
+  public int getJobsScheduled() {
+    return jobsScheduled;
+  }
+
+  public void setServerXMLPath(String serverXMLPath) {
+    this.serverXMLPath = serverXMLPath;
+  }
+
+  public void setCatalogueCache(String catalogueCacheDir) {
+    this.catalogueCacheDir = catalogueCacheDir;
+  }
+
+  public void setVerifyInterval(int verifyInterval) {
+    this.verifyInterval = verifyInterval;
+  }
+
+  public void setQueueWaitThreshold(int queueWaitThreshold) {
+    this.queueWaitThreshold = queueWaitThreshold;
+  }
+
+  public void setRebalanceBudget(int rebalanceBudget) {
+    this.rebalanceBudget = rebalanceBudget;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  // Learn run times in a cache of at most 'capacity' job shapes
+  public void setRuntimePredictor(int capacity) {
+    runtimePredictor = new RuntimePredictor(capacity);
+    if (metrics != null) {
+      metrics.setRuntimePredictor(runtimePredictor);
+    }
+  }
+
+  // Number of locally ranked FT candidates confirmed with EJWT, -1 confirms every candidate
+  public void setEJWTConfirmCount(int ejwtConfirmCount) {
+    setPolicyOption("ejwt.confirm", Integer.toString(ejwtConfirmCount));
+  }
+
+  // Weight of a second of turnaround against a second of the cheapest server's rental in CA
+  public void setCostTurnaroundWeight(double costTurnaroundWeight) {
+    setPolicyOption("cost.weight", Double.toString(costTurnaroundWeight));
+  }
+
+  // Record every message of the session, see SessionReplay
+  public void setSessionRecorder(SessionRecorder recorder) {
+    serverCommunication.setRecorder(recorder);
+  }
+
+  /**
+   * Overlap the client's work with ds-server's: REDY is sent together with each SCHD, or straight
+   * after a JCPL that needs no other request, and the local model is updated while ds-server
+   * produces the next event. With a reader thread, that event is also read and split on a
+   * background thread meanwhile.
+   */
+  public void setAsync(boolean pipelineRedy, boolean readerThread) {
+    this.pipelineRedy = pipelineRedy;
+    if (readerThread) {
+      serverCommunication.startReaderThread();
+    }
+  }
+
+  /**
+   * Terminate servers once they have been idle for holdFactor times their break-even idle time,
+   * see IdleServerController. The delay weight values a second of delay for the job that boots a
+   * terminated server again against a second of the cheapest server's rental. 0 keeps every
+   * server rented.
+   */
+  public void setIdleTermination(double holdFactor, double delayWeight) {
+    this.idleHoldFactor = holdFactor;
+    this.idleDelayWeight = delayWeight;
+  }
+
+  /**
+   * Split the local scans of FT ("-k 0") and CA over shards of the server rows, each scanned by
+   * its own thread, see ShardedScan. Fleets too small to give every shard MIN_SHARD_ROWS rows use
+   * fewer shards. Decisions are the same as with one shard.
+   */
+  public void setShards(int shards) {
+    this.shards = shards;
+  }
+
+  /**
+   * Log the model's events to a memory-mapped file at path, with a snapshot of the model every
+   * snapshotInterval records, see StateLog. With resume, an existing log restores the model
+   * instead of a GETS All, and is appended to.
+   */
+  public void setStateLog(String path, boolean resume, int snapshotInterval) {
+    this.stateLogPath = path;
+    this.resumeStateLog = resume;
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  public IdleServerController getIdleServerController() {
+    return idleServerController;
+  }
+
+  public void setTransport(Transport transport) {
+    serverCommunication.setTransport(transport);
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    serverCommunication.setTcpNoDelay(tcpNoDelay);
+  }
+
+  // ###############
+  // ## Job Queue ##
+  // ###############
+
+  private boolean shouldEnqueue(Server chosenServer) {
+    return queueWaitThreshold >= 0 && serverState != null
+        && serverState.estimateWaitTime(chosenServer, currJob) > queueWaitThreshold;
+  }
+
+  // Returns false if the server refused, in which case the job is scheduled as usual
+  private boolean enqueueJob() {
+    serverCommunication.send(Command.ENQJ, "GQ");
+    if (!"OK".equals(serverCommunication.recieve())) {
+      return false;
+    }
+    queuedJobs.add(new Job(currJob.jobID, currJob.submitTime, currJob.estRunTime,
+        currJob.reqCore, currJob.reqMemory, currJob.reqDisk));
+    if (stateLog != null) {
+      firstSubmitTimes.putIfAbsent(currJob.jobID, currJob.submitTime);
+    }
+    return true;
+  }
+
+  private void dequeueJob(int qID) {
+    serverCommunication.send(Command.DEQJ, "GQ " + qID);
+    serverCommunication.recieve();
+    if (qID < queuedJobs.size()) {
+      queuedJobs.remove(qID);
+    }
+  }
+
+  /**
+   * Match the resources a completed job freed to queued jobs, in queue order, and resubmit every
+   * job that fits. The resubmitted jobs arrive as JOBP and are scheduled before any other event.
+   */
+  private int drainQueue(String serverType, int serverID) {
+    Server server = serverState.getServer(serverType, serverID);
+    if (server == null || server.waitingJobs > 0) {
+      return 0;
+    }
+
+    int dequeued = 0;
+    int core = server.core;
+    int memory = server.memory;
+    int disk = server.disk;
+    for (int qID = 0; qID < queuedJobs.size() && core > 0;) {
+      Job job = queuedJobs.get(qID);
+      if (job.reqCore <= core && job.reqMemory <= memory && job.reqDisk <= disk) {
+        core -= job.reqCore;
+        memory -= job.reqMemory;
+        disk -= job.reqDisk;
+        dequeueJob(qID);
+        dequeued++;
+      } else {
+        qID++;
+      }
+    }
+    return dequeued;
+  }
+
+  // ######################
+  // ## Server Failures ##
+  // ######################
+
+  /**
+   * RESF/RESR serverType serverID time. A failed server is marked unavailable in the model, which
+   * leaves it out of every candidate set without querying ds-server again, and its killed jobs
+   * come back as JOBP. On recovery, the queued jobs that fit it are resubmitted.
+   */
+  private void handleServerFailure(ProtocolReader message, boolean failed) {
+    String serverType;
+    int serverID;
+    try {
+      serverType = message.token(1);
+      serverID = message.intToken(2);
+      currentDSServerTime = message.intToken(3);
+    } catch (ArrayIndexOutOfBoundsException e) {
+      System.out.println("ArrayIndexOutOfBoundsException ==> " + e.getMessage());
+      return;
+    } catch (NumberFormatException e) {
+      System.out.println("NumberFormatException ==> " + e.getMessage());
+      return;
+    }
+    int row = (serverState != null) ? serverState.getServerRow(serverType, serverID) : -1;
+    // A restarted client may see the event twice
+    boolean changed = (row < 0)
+        || failed != (serverState.getTable().status[row] == ServerTable.UNAVAILABLE);
+    if (changed) {
+      unavailableServers = Math.max(0, unavailableServers + (failed ? 1 : -1));
+    }
+
+    if (row >= 0) {
+      serverState.advanceTime(currentDSServerTime);
+      if (failed) {
+        for (Job killed : serverState.failServer(row)) {
+          if (stateLog != null) {
+            firstSubmitTimes.putIfAbsent(killed.jobID, killed.submitTime);
+          }
+        }
+      } else {
+        serverState.recoverServer(row);
+      }
+      if (stateLog != null) {
+        stateLog.logServerEvent(failed ? StateLog.RESF : StateLog.RESR, currentDSServerTime, row);
+      }
+    }
+    // Held jobs are only assigned now, so never to the failed server
+    flushBatch();
+    boolean rejected = rejectingServers.remove(serverType + " " + serverID)
+        | rejectingServers.remove("*");
+    if (!failed && !queuedJobs.isEmpty()) {
+      if (serverState != null) {
+        drainQueue(serverType, serverID);
+      } else if (rejected) {
+        // Without a model, every queued job is tried again once a server that refused one is back
+        while (!queuedJobs.isEmpty()) {
+          dequeueJob(0);
+        }
+      }
     }
   }
 
-  // ##################################
-  // ## Custom Scheduling Algorithms ##
-  // ##################################
+  // ###################
+  // ## Job Migration ##
+  // ###################
 
-  Server fastestTurnaroundAlgorithm(int reqCore, int reqMem, int reqDisk) {
-    List<Server> servers = getServerInfo(GETSMode.Avail, reqCore, reqMem, reqDisk);
-    if (servers == null || servers.isEmpty()) {
-      servers = getServerInfo(GETSMode.Capable, reqCore, reqMem, reqDisk);
+  /**
+   * Move waiting jobs from the servers with the longest queues to the server a job just completed
+   * on, while they fit its free resources and the model predicts they start sooner there. Each
+   * source costs one round-trip for a pipelined batch of MIGJ, plus three for an LSTJ that
+   * confirms its waiting jobs when the budget allows.
+   */
+  private void rebalance(String serverType, int serverID) {
+    Server target = serverState.getServer(serverType, serverID);
+    if (target == null) {
+      return;
     }
 
-    int chosenServerIndex = -1;
-    int minEstimatedWaitingTime = Integer.MAX_VALUE;
-    for (int i = 0; i < servers.size(); i++) {
-      // query the total estimated waiting time i.e. EJWT serverType serverID
-      Server server = servers.get(i);
-      serverCommunication.send(Command.EJWT, server.serverType + " " + server.serverID);
-      int estWaitingTime = Integer.parseInt(serverCommunication.recieve());
+    long roundTripsStart = serverCommunication.getRoundTrips();
+    int migrated = 0;
+    long savedSeconds = 0;
+    int budget = rebalanceBudget;
+    Server source;
+    while (budget > 0 && (source = serverState.findMigrationSource(target)) != null) {
+      // Jobs at the back of the queue wait the longest, so they are considered first
+      List<Job> waitingJobs = serverState.getWaitingJobs(source);
+      List<Job> candidates = new ArrayList<>();
+      List<Integer> savings = new ArrayList<>();
+      int core = target.core;
+      int memory = target.memory;
+      int disk = target.disk;
+      for (int i = waitingJobs.size() - 1; i >= 0; i--) {
+        Job job = waitingJobs.get(i);
+        if (job.reqCore > core || job.reqMemory > memory || job.reqDisk > disk) {
+          continue;
+        }
+        int saving = serverState.estimateQueuedWait(job.jobID)
+            - serverState.estimateWaitTime(target, job);
+        if (saving > 0) {
+          candidates.add(job);
+          savings.add(saving);
+          core -= job.reqCore;
+          memory -= job.reqMemory;
+          disk -= job.reqDisk;
+        }
+      }
+      if (candidates.isEmpty()) {
+        break;
+      }
+
+      if (budget >= 4) {
+        Set<Integer> confirmed = listWaitingJobs(source);
+        budget -= 3;
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+          if (!confirmed.contains(candidates.get(i).jobID)) {
+            candidates.remove(i);
+            savings.remove(i);
+          }
+        }
+        if (candidates.isEmpty()) {
+          break;
+        }
+      }
+
+      // MIGJ jobID srcServerType srcServerID tgtServerType tgtServerID
+      serverCommunication.setAutoFlush(false);
+      for (Job job : candidates) {
+        serverCommunication.send(Command.MIGJ, job.jobID + " " + source.serverType + " "
+            + source.serverID + " " + target.serverType + " " + target.serverID);
+      }
+      serverCommunication.setAutoFlush(true);
+      budget--;
 
-      if (minEstimatedWaitingTime > estWaitingTime) {
-        minEstimatedWaitingTime = estWaitingTime;
-        chosenServerIndex = i;
+      for (int i = 0; i < candidates.size(); i++) {
+        if ("OK".equals(serverCommunication.recieve())) {
+          if (idleServerController != null) {
+            idleServerController.beforeSchedule(
+                serverState.getServerRow(target.serverType, target.serverID), currentDSServerTime);
+          }
+          serverState.migrateJob(candidates.get(i).jobID, target.serverType, target.serverID);
+          if (stateLog != null) {
+            stateLog.logMigration(currentDSServerTime, candidates.get(i).jobID,
+                serverState.getServerRow(target.serverType, target.serverID));
+          }
+          migrated++;
+          savedSeconds += savings.get(i);
+        } else {
+          System.out.println("MIGJ rejected ==> job " + candidates.get(i).jobID + " from "
+              + source.serverType + " " + source.serverID);
+        }
       }
     }
 
-    return servers.get(chosenServerIndex);
+    if (metrics != null) {
+      metrics.addRebalance(migrated, savedSeconds,
+          serverCommunication.getRoundTrips() - roundTripsStart);
+    }
   }
 
-  Server closestFitAlgorithm(int reqCore, int reqMem, int reqDisk) {
-    // Query and return available server with required resource based on GETS Avail
-    List<Server> servers = getServerInfo(GETSMode.Avail, reqCore, reqMem, reqDisk);
+  // IDs of the jobs listed as waiting by 'LSTJ serverType serverID'
+  private Set<Integer> listWaitingJobs(Server server) {
+    Set<Integer> waitingJobs = new HashSet<>();
+    listJobs(server, job -> {
+      if (job.jobState == Job.WAITING) {
+        waitingJobs.add(job.jobID);
+      }
+    });
+    return waitingJobs;
+  }
 
-    // If no server data is retrieved from GETS Avail, try getting data from GETS Capable instead.
-    if (servers == null || servers.isEmpty()) {
-      servers = getServerInfo(GETSMode.Capable, reqCore, reqMem, reqDisk);
-      if (servers == null || servers.isEmpty()) {
-        // No available servers
+  // Send 'LSTJ serverType serverID' and pass every listed job to the consumer, in one reused holder
+  private void listJobs(Server server, Consumer<Job> consumer) {
+    serverCommunication.send(Command.LSTJ, server.serverType + " " + server.serverID);
+    int numOfJobs = serverCommunication.recieveMessage().intToken(1);
 
-        return null;
+    if (numOfJobs != 0) {
+      serverCommunication.send(Command.OK);
+      for (int i = 0; i < numOfJobs; i++) {
+        if (Job.parseJobInfoFromLSTJ(serverCommunication.recieveMessage(), listedJob)) {
+          consumer.accept(listedJob);
+        }
       }
     }
 
-    int chosenServerIndex = -1;
-    int backupServerIndex = -1;
-    int smallestFitnessValueCore = Integer.MAX_VALUE;
-    int smallestFitnessValueMemory = Integer.MAX_VALUE;
+    serverCommunication.send(Command.OK);
+    serverCommunication.recieve(); // RECV .
+  }
+
+  // ######################
+  // ## Idle Termination ##
+  // ######################
 
-    for (int i = 0; i < servers.size(); i++) {
-      int fitnessValueCore = servers.get(i).core - reqCore;
-      int fitnessValueMemory = servers.get(i).memory - reqMem;
+  private boolean terminationDue() {
+    return idleServerController != null && idleServerController.hasDue(currentDSServerTime);
+  }
+
+  /**
+   * TERM the servers that have been idle longer than their hold time, in one pipelined
+   * round-trip. Only servers without jobs in the model are terminated, so there is nothing for
+   * ds-server to kill and resubmit, and KILJ is never needed.
+   */
+  private void terminateIdleServers() {
+    int count = idleServerController.takeDue(currentDSServerTime, dueServerRows);
+    if (count == 0) {
+      return;
+    }
+    ServerTable table = serverState.getTable();
+    long roundTripsStart = serverCommunication.getRoundTrips();
 
-      // Selection process:
-      // 1.Select a server with the smallest positive core fitness value. 
-      // 2.If given 2 servers of the samefitness value, use memory fitness value as a tiebreaker. 
-      // 3.If however, there is no positive fitness value server, pick the closest negative fitness value server to 0.
-      if (fitnessValueCore < smallestFitnessValueCore && fitnessValueCore >= 0) {
-        smallestFitnessValueCore = fitnessValueCore;
-        smallestFitnessValueMemory = fitnessValueMemory;
-        chosenServerIndex = i;
-      } else if (fitnessValueCore == smallestFitnessValueCore) {
-        if (fitnessValueMemory < smallestFitnessValueMemory && fitnessValueMemory >= 0) {
-          smallestFitnessValueMemory = fitnessValueMemory;
-          chosenServerIndex = i;
+    // TERM serverType serverID
+    serverCommunication.setAutoFlush(false);
+    for (int i = 0; i < count; i++) {
+      int row = dueServerRows[i];
+      serverCommunication.send(Command.TERM,
+          table.typeName(table.typeID[row]) + " " + table.serverID[row]);
+    }
+    serverCommunication.setAutoFlush(true);
+
+    int terminated = 0;
+    for (int i = 0; i < count; i++) {
+      int row = dueServerRows[i];
+      String response = serverCommunication.recieve();
+      if (response == null || response.startsWith("ERR")) {
+        System.out.println("TERM rejected ==> " + table.typeName(table.typeID[row]) + " "
+            + table.serverID[row]);
+      } else if (serverState.terminateServer(row)) {
+        idleServerController.terminated(row, currentDSServerTime);
+        if (stateLog != null) {
+          stateLog.logServerEvent(StateLog.TERM, currentDSServerTime, row);
         }
-      } else if (chosenServerIndex == -1 && fitnessValueCore < smallestFitnessValueCore) {
-        smallestFitnessValueCore = fitnessValueCore;
-        smallestFitnessValueMemory = fitnessValueMemory;
-        backupServerIndex = i;
+        terminated++;
       }
     }
 
-    if (chosenServerIndex == -1) {
-      chosenServerIndex = backupServerIndex;
+    if (metrics != null) {
+      metrics.addTerminations(terminated, serverCommunication.getRoundTrips() - roundTripsStart);
+    }
+  }
+
+  // ########################
+  // ## Local Server State ##
+  // ########################
+
+  // Use a prepared model instead of seeding one from GETS All, e.g. for benchmarks
+  void setServerState(ServerState serverState) {
+    this.serverState = serverState;
+  }
+
+  private void initServerState() {
+    if (serverState == null) {
+      serverState = new ServerState(getServerInfo(GETSMode.All, 0, 0, 0), getCatalogue());
+      serverState.setRuntimePredictor(runtimePredictor);
+      if (stateLog != null) {
+        // Every record from here on applies to this snapshot
+        stateLog.logServers(serverState);
+        stateLog.snapshot(serverState, jobsScheduled);
+      }
     }
+    if (idleServerController == null && idleHoldFactor > 0) {
+      idleServerController =
+          new IdleServerController(serverState, idleHoldFactor, idleDelayWeight);
+      dueServerRows = new int[serverState.size()];
+    }
+  }
 
-    return servers.get(chosenServerIndex);
+  /**
+   * Start a new event log, or with resume, restore the model from the log's latest snapshot and
+   * the records after it and append to the log.
+   */
+  private void openStateLog() {
+    if (stateLogPath == null) {
+      return;
+    }
+    try {
+      StateLog.Restored restored = (resumeStateLog && StateLog.exists(stateLogPath))
+          ? StateLog.restore(stateLogPath, getCatalogue()) : null;
+      if (restored == null) {
+        stateLog = StateLog.create(stateLogPath);
+        return;
+      }
+      serverState = restored.serverState;
+      serverState.setRuntimePredictor(runtimePredictor);
+      jobsScheduled = restored.jobsScheduled;
+      currentDSServerTime = serverState.getCurrentTime();
+      ServerTable table = serverState.getTable();
+      for (int row = 0; row < table.size; row++) {
+        if (table.status[row] == ServerTable.UNAVAILABLE) {
+          unavailableServers++;
+        }
+      }
+      stateLog = StateLog.append(stateLogPath);
+      System.out.println("RESUME at " + currentDSServerTime + ": " + jobsScheduled
+          + " jobs scheduled, " + restored.replayed + " records after the snapshot");
+    } catch (IOException e) {
+      System.out.println("IOException ==> " + e.getMessage());
+    }
   }
 
-  // ####################################
-  // ## Baseline Scheduling Algorithms ##
-  // ####################################
+  // Logged before the SCHD goes out, as a lost SCHD comes back as JOBP but a lost record would not
+  private void logSchedule(Job job, Server server) {
+    if (stateLog == null || serverState == null) {
+      return;
+    }
+    int row = serverState.getServerRow(server.serverType, server.serverID);
+    if (row >= 0) {
+      stateLog.logSchedule(currentDSServerTime, job, row,
+          serverState.getTable().status[row] == ServerTable.INACTIVE);
+    }
+  }
 
-  Server firstCapableAlgorithm(int reqCore, int reqMem, int reqDisk) {
-    List<Server> servers = getServerInfo(GETSMode.Capable, reqCore, reqMem, reqDisk);
+  // Record a SCHD in the model, and end the server's idle time
+  private void scheduleInModel(Job job, Server server) {
+    if (idleServerController != null) {
+      int row = serverState.getServerRow(server.serverType, server.serverID);
+      if (row >= 0) {
+        idleServerController.beforeSchedule(row, currentDSServerTime);
+      }
+    }
+    serverState.scheduleJob(job, server.serverType, server.serverID);
+  }
 
-    // Return first server from GETS Capable
-    return servers.get(0);
+  private void verifyServerState() {
+    List<Integer> driftedRows = new ArrayList<>();
+    int drifted = serverState.verify(getServerInfo(GETSMode.All, 0, 0, 0), driftedRows);
+    // The job lists of drifted servers are taken from ds-server too, or estimates keep drifting
+    for (int row : driftedRows) {
+      List<Job> jobs = new ArrayList<>();
+      listJobs(serverState.getServerAt(row), job -> jobs.add(new Job(job.jobID, job.jobState,
+          job.submitTime, job.startTime, job.estRunTime, job.reqCore, job.reqMemory, job.reqDisk)));
+      serverState.resyncJobs(row, jobs);
+    }
+    System.out.println("VERIFY job " + jobsScheduled + ": " + drifted + " of "
+        + serverState.size() + " servers drifted");
   }
 
   // #####################
   // ## Ulility Methods ##
   // #####################
 
+  // The returned list and its records are reused by the next call
   private List<Server> getServerInfo(GETSMode GetsMode, int reqCore, int reqMemory, int reqDisk) {
     // Generate outgoing message for GETS command with appropriate GETSMode
-    serverCommunication.send(Command.GETS,
-        GetsMode.toString() + " " + reqCore + " " + reqMemory + " " + reqDisk);
+    if (GetsMode == GETSMode.All) {
+      serverCommunication.send(Command.GETS, GetsMode.toString());
+    } else {
+      serverCommunication.send(Command.GETS,
+          GetsMode.toString() + " " + reqCore + " " + reqMemory + " " + reqDisk);
+    }
 
     // Should recieve DATA [nRecs] [recLen]
-    serverCommunication.recieve();
-    String[] spiltedMsg = serverCommunication.getReceivedMessage().split("\\s++");
-    int numOfServer = Integer.parseInt(spiltedMsg[1]);
-    List<Server> servers = new ArrayList<>();
+    int numOfServer = serverCommunication.recieveMessage().intToken(1);
+    if (metrics != null) {
+      metrics.addGetsRecords(numOfServer);
+    }
+    List<Server> servers = serverRecords;
+    servers.clear();
 
     if (numOfServer != 0) {
       serverCommunication.send(Command.OK);
-      // Process servers information
+      // Process servers information into the reusable record holders
       for (int i = 0; i < numOfServer; i++) {
-        serverCommunication.recieve();
-        spiltedMsg = serverCommunication.getReceivedMessage().split("\\s++");
-        servers.add(Server.parseServerInfo(spiltedMsg));
+        if (i == serverRecordPool.size()) {
+          serverRecordPool.add(new Server());
+        }
+        Server server = serverRecordPool.get(i);
+        // Failed servers are never candidates, but are part of the full list
+        if (Server.parseServerInfo(serverCommunication.recieveMessage(), server)
+            && (GetsMode == GETSMode.All || !ServerState.UNAVAILABLE.equals(server.status))) {
+          servers.add(server);
+        }
       }
     }
 
@@ -232,42 +1178,273 @@ public class Client {
     return servers;
   }
 
+  private static ServerCommand parseServerCommand(ProtocolReader message) {
+    int index = (message.tokenCount() > 0) ? message.tokenIndex(0, SERVER_COMMANDS) : -1;
+    // Anything unrecognised, e.g. 'ERR: ...', is treated as an error response
+    return (index >= 0) ? SERVER_COMMAND_VALUES[index] : ServerCommand.ERR;
+  }
+
   public static void main(String args[]) {
-    // Check if any command-line arguments are passed
-    if (args.length == 0) {
-      new Client().run();
-    } else if (args.length == 2 && args[0].equals("-a")) {
-      String arg = args[1];
-      Algorithm algo = null;
+    String policyName = "cf";
+    Properties policyOptions = new Properties();
+    int verifyInterval = 0;
+    Transport transport = Transport.STREAM;
+    Boolean tcpNoDelay = null;
+    String serverXMLPath = "ds-system.xml";
+    String catalogueCacheDir = null;
+    String async = "off";
+    String recordPath = null;
+    String replayPath = null;
+    String simConfigPath = null;
+    String simTracePath = null;
+    long simNumOfJobs = 0;
+    long simSeed = 0;
+    double simRunTimeVariance = 0;
+    double simRunTimeScale = 1;
+    int simMeanTimeBetweenFailures = 0;
+    int simMeanRecoveryTime = 0;
+    String metricsFormat = null;
+    int metricsInterval = 0;
+    int queueWaitThreshold = -1;
+    int rebalanceBudget = 0;
+    int batchSize = 0;
+    int predictorCapacity = 0;
+    double idleHoldFactor = 0;
+    int shards = 1;
+    String stateLogPath = null;
+    boolean resume = false;
+    int snapshotInterval = 10000;
 
-      // Pick an algorithm
-      switch (arg) {
-        case "fc":
-          algo = Algorithm.FC;
+    // Parse command-line options, i.e. -a [policy] -o [policy option=value] -v [verify interval]
+    // -k [EJWT candidates] -t [stream|nio] -nodelay [on|off] -x [ds-system.xml] -cache [dir]
+    // -m [json|csv] -mi [metrics interval]
+    // -w [CA turnaround weight] -q [queueing wait threshold] -r [rebalance round-trip budget]
+    // -b [batch size] -p [runtime predictor shapes] -rec [recording] -replay [recording]
+    // -async [off|redy|on] -term [idle hold factor] -shards [scan threads]
+    // -log [state log] -resume [state log] -snap [records between snapshots]
+    // and for the in-process simulated ds-server -sim [ds-system.xml] -jobs [trace.xml]
+    // -g [numOfJobs] -seed [seed] -rv [runTimeVariance] -rs [runTimeScale]
+    // -mtbf [mean time between failures] -mttr [mean recovery time]
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-a":
+          policyName = args[i + 1];
+          break;
+        case "-o":
+          String[] option = args[i + 1].split("=", 2);
+          policyOptions.setProperty(option[0], option.length > 1 ? option[1] : "");
+          break;
+        case "-v":
+          verifyInterval = Integer.parseInt(args[i + 1]);
+          break;
+        case "-k":
+          policyOptions.setProperty("ejwt.confirm", args[i + 1]);
+          break;
+        case "-t":
+          transport = args[i + 1].equals("nio") ? Transport.NIO : Transport.STREAM;
+          break;
+        case "-nodelay":
+          tcpNoDelay = args[i + 1].equals("on");
+          break;
+        case "-w":
+          policyOptions.setProperty("cost.weight", args[i + 1]);
+          break;
+        case "-q":
+          queueWaitThreshold = Integer.parseInt(args[i + 1]);
+          break;
+        case "-r":
+          rebalanceBudget = Integer.parseInt(args[i + 1]);
+          break;
+        case "-b":
+          batchSize = Integer.parseInt(args[i + 1]);
+          break;
+        case "-p":
+          predictorCapacity = Integer.parseInt(args[i + 1]);
+          break;
+        case "-shards":
+          shards = Integer.parseInt(args[i + 1]);
+          break;
+        case "-term":
+          idleHoldFactor = Double.parseDouble(args[i + 1]);
           break;
-        case "bf":
-          algo = Algorithm.BF;
+        case "-log":
+          stateLogPath = args[i + 1];
           break;
-        case "ff":
-          algo = Algorithm.FF;
+        case "-resume":
+          stateLogPath = args[i + 1];
+          resume = true;
           break;
-        case "wf":
-          algo = Algorithm.WF;
+        case "-snap":
+          snapshotInterval = Integer.parseInt(args[i + 1]);
           break;
-        case "atl":
-          algo = Algorithm.ATL;
+        case "-m":
+          metricsFormat = args[i + 1];
           break;
-        case "cf":
-          algo = Algorithm.CF;
+        case "-mi":
+          metricsInterval = Integer.parseInt(args[i + 1]);
           break;
-        case "ft":
-          algo = Algorithm.FT;
+        case "-x":
+          serverXMLPath = args[i + 1];
+          break;
+        case "-async":
+          async = args[i + 1];
+          break;
+        case "-rec":
+          recordPath = args[i + 1];
+          break;
+        case "-replay":
+          replayPath = args[i + 1];
+          break;
+        case "-cache":
+          catalogueCacheDir = args[i + 1];
+          break;
+        case "-sim":
+          simConfigPath = args[i + 1];
+          break;
+        case "-jobs":
+          simTracePath = args[i + 1];
+          break;
+        case "-g":
+          simNumOfJobs = Long.parseLong(args[i + 1]);
+          break;
+        case "-seed":
+          simSeed = Long.parseLong(args[i + 1]);
+          break;
+        case "-rv":
+          simRunTimeVariance = Double.parseDouble(args[i + 1]);
+          break;
+        case "-rs":
+          simRunTimeScale = Double.parseDouble(args[i + 1]);
+          break;
+        case "-mtbf":
+          simMeanTimeBetweenFailures = Integer.parseInt(args[i + 1]);
+          break;
+        case "-mttr":
+          simMeanRecoveryTime = Integer.parseInt(args[i + 1]);
           break;
         default:
-          algo = Algorithm.CF;
           break;
       }
-      new Client(algo).run();
     }
+
+    // Connect to ds-server, or to an in-process simulated ds-server
+    Client client;
+    SimServer simServer = null;
+    SessionReplay replay = null;
+    if (replayPath != null) {
+      try {
+        replay = SessionReplay.load(replayPath);
+        client = new Client(Algorithm.CF, replay.connect());
+      } catch (IOException e) {
+        System.out.println("IOException ==> " + e.getMessage());
+        System.exit(1);
+        return;
+      }
+    } else if (simConfigPath != null) {
+      try {
+        simServer =
+            SimServer.create(simConfigPath, simTracePath, simNumOfJobs, simRunTimeVariance, simSeed);
+        simServer.setRunTimeScale(simRunTimeScale);
+        simServer.setFailures(simMeanTimeBetweenFailures, simMeanRecoveryTime);
+        client = new Client(Algorithm.CF, simServer.connectInMemory());
+        serverXMLPath = simConfigPath;
+      } catch (IOException e) {
+        System.out.println("IOException ==> " + e.getMessage());
+        System.exit(1);
+        return;
+      }
+    } else {
+      client = new Client(Algorithm.CF);
+      client.setTransport(transport);
+      if (tcpNoDelay != null) {
+        client.setTcpNoDelay(tcpNoDelay);
+      }
+    }
+
+    client.setServerXMLPath(serverXMLPath);
+    client.setCatalogueCache(catalogueCacheDir);
+    client.setVerifyInterval(verifyInterval);
+    for (String key : policyOptions.stringPropertyNames()) {
+      client.setPolicyOption(key, policyOptions.getProperty(key));
+    }
+    if (!client.setPolicy(policyName)) {
+      System.exit(1);
+    }
+    client.setQueueWaitThreshold(queueWaitThreshold);
+    client.setRebalanceBudget(rebalanceBudget);
+    client.setBatchSize(batchSize);
+    if (predictorCapacity > 0) {
+      client.setRuntimePredictor(predictorCapacity);
+    }
+    if (idleHoldFactor > 0) {
+      client.setIdleTermination(idleHoldFactor, 1);
+    }
+    client.setShards(shards);
+    if (stateLogPath != null) {
+      client.setStateLog(stateLogPath, resume, snapshotInterval);
+    }
+    if (metricsFormat != null) {
+      client.setMetrics(metricsFormat, metricsInterval);
+    }
+    SessionRecorder recorder = null;
+    if (!async.equals("off")) {
+      client.setAsync(true, async.equals("on"));
+    }
+    if (recordPath != null) {
+      try {
+        recorder = new SessionRecorder(recordPath);
+        client.setSessionRecorder(recorder);
+      } catch (IOException e) {
+        System.out.println("IOException ==> " + e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    int exit;
+    if (replay != null) {
+      exit = replay(client, replay);
+    } else if (simServer != null) {
+      exit = simulate(client, simServer);
+    } else {
+      exit = client.run();
+    }
+    if (recorder != null) {
+      recorder.close();
+    }
+    System.exit(exit);
+  }
+
+  // Run a whole session against an in-process simulated ds-server and report the decision rate
+  private static int simulate(Client client, SimServer simServer) {
+    long start = System.nanoTime();
+    int exit = client.run();
+    long elapsed = System.nanoTime() - start;
+
+    System.out.println(simServer.getStats());
+    System.out.printf("# %d scheduling decisions in %.1f ms (%.0f decisions/s)%n",
+        client.getJobsScheduled(), elapsed / 1e6, client.getJobsScheduled() * 1e9 / elapsed);
+    IdleServerController idleServerController = client.getIdleServerController();
+    if (idleServerController != null) {
+      System.out.printf("# %d idle servers terminated, %d booted again within break-even%n",
+          idleServerController.getTerminations(), idleServerController.getThrashes());
+    }
+    return exit;
+  }
+
+  // Replay a recorded session, verify the client sent the same messages and report its own time
+  private static int replay(Client client, SessionReplay replay) {
+    long start = System.nanoTime();
+    try {
+      client.run();
+    } catch (RuntimeException e) {
+      // A client that diverged from the recording can run off the end of the recorded messages
+      System.out.println("Replay stopped ==> " + e);
+    }
+    long elapsed = System.nanoTime() - start;
+
+    System.out.println(replay.getReport());
+    System.out.printf("# %d scheduling decisions in %.1f ms of client time (%.0f decisions/s)%n",
+        client.getJobsScheduled(), elapsed / 1e6, client.getJobsScheduled() * 1e9 / elapsed);
+    return replay.isVerified() ? 0 : 1;
   }
 }
@@ -0,0 +1,342 @@
+/**
+ * Parameter sweep runner: simulates every combination of algorithm, ds-system.xml, job trace and
+ * seed concurrently in one JVM, and reports turnaround, utilisation and cost side by side.
+ *
+ * <p>
+ * Every run pairs a Client with its own SimServer. By default the two talk over a loopback port
+ * (an ephemeral port per run); "-t memory" uses an in-memory pipe instead. The blocking protocol
+ * I/O runs on virtual threads when the JVM has them (JDK 21+), otherwise on platform threads, and
+ * at most "-j" runs (default: the number of cores) simulate at the same time.
+ * </p>
+ *
+ * <p>
+ * java Sweep -a [cf,ft,...] -c [ds-system.xml,...] [-jobs trace.xml,... | -g numOfJobs]
+ * [-seed S,...] [-rv runTimeVariance] [-rs runTimeScale] [-mtbf T] [-mttr T] [-o option=value]
+ * [-q T] [-r B] [-b N] [-p N] [-term H] [-j parallel runs] [-t loopback|memory] [-csv report.csv]
+ * </p>
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import util.*;
+import util.enums.*;
+
+public class Sweep {
+  private static final String CSV_HEADER = "algorithm,config,trace,seed,exit,jobsCompleted,"
+      + "jobsUnscheduled,avgWaitingTime,avgExecutionTime,avgTurnaroundTime,avgUtilisation,"
+      + "totalCost,serversUsed,decisions,wallMillis";
+
+  // One combination of the sweep and, once simulated, its outcome
+  private static class Run {
+    final String algorithm;
+    final String config;
+    final String trace;
+    final long seed;
+
+    int exit = -1;
+    SimServer.Stats stats = null;
+    int decisions = 0;
+    long wallNanos = 0;
+    String error = null;
+
+    Run(String algorithm, String config, String trace, long seed) {
+      this.algorithm = algorithm;
+      this.config = config;
+      this.trace = trace;
+      this.seed = seed;
+    }
+  }
+
+  private final Properties policyOptions = new Properties();
+  private long numOfJobs = 0;
+  private double runTimeVariance = 0;
+  private double runTimeScale = 1;
+  private int meanTimeBetweenFailures = 0;
+  private int meanRecoveryTime = 0;
+  private int queueWaitThreshold = -1;
+  private int rebalanceBudget = 0;
+  private int batchSize = 0;
+  private int predictorCapacity = 0;
+  private double idleHoldFactor = 0;
+  private boolean inMemory = false;
+
+  private final ExecutorService executor = newExecutor();
+  private Semaphore slots;
+
+  // ###########
+  // ## Sweep ##
+  // ###########
+
+  /**
+   * Simulate every run, in parallel, and fill in their outcomes.
+   */
+  private void sweep(List<Run> runs, int parallelism) {
+    slots = new Semaphore(parallelism);
+    List<Future<?>> futures = new ArrayList<>(runs.size());
+    for (Run run : runs) {
+      futures.add(executor.submit(() -> simulate(run)));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        futures.get(i).get();
+      } catch (InterruptedException | ExecutionException e) {
+        runs.get(i).error = String.valueOf(e.getCause() != null ? e.getCause() : e);
+      }
+    }
+    executor.shutdown();
+  }
+
+  private void simulate(Run run) {
+    slots.acquireUninterruptibly();
+    try {
+      SimServer simServer =
+          SimServer.create(run.config, run.trace, numOfJobs, runTimeVariance, run.seed);
+      simServer.setRunTimeScale(runTimeScale);
+      simServer.setFailures(meanTimeBetweenFailures, meanRecoveryTime);
+
+      long start = System.nanoTime();
+      if (inMemory) {
+        run.exit = runClient(run, simServer.connectInMemory());
+      } else {
+        // Bound before the client connects, so the port is known and nothing can race for it
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+          serverChannel.bind(new InetSocketAddress("localhost", 0));
+          int port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+          Future<?> session = executor.submit(() -> {
+            simServer.accept(serverChannel);
+            return null;
+          });
+          run.exit = runClient(run, new ClientServerConnection("localhost", port));
+          session.get();
+        }
+      }
+      run.wallNanos = System.nanoTime() - start;
+      run.stats = simServer.getStats();
+    } catch (IOException | InterruptedException | ExecutionException e) {
+      run.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+    } finally {
+      slots.release();
+    }
+  }
+
+  private int runClient(Run run, ClientServerConnection connection) {
+    Client client = new Client(Algorithm.CF, connection);
+    client.setServerXMLPath(run.config);
+    for (String key : policyOptions.stringPropertyNames()) {
+      client.setPolicyOption(key, policyOptions.getProperty(key));
+    }
+    client.setPolicy(run.algorithm);
+    client.setQueueWaitThreshold(queueWaitThreshold);
+    client.setRebalanceBudget(rebalanceBudget);
+    client.setBatchSize(batchSize);
+    if (predictorCapacity > 0) {
+      client.setRuntimePredictor(predictorCapacity);
+    }
+    if (idleHoldFactor > 0) {
+      client.setIdleTermination(idleHoldFactor, 1);
+    }
+
+    int exit = client.run();
+    run.decisions = client.getJobsScheduled();
+    return exit;
+  }
+
+  // Virtual threads when the JVM has them, looked up reflectively to keep running on JDK 17
+  private static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "sweep");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  // ############
+  // ## Report ##
+  // ############
+
+  private static void printReport(List<Run> runs, long elapsedNanos) {
+    System.out.printf("%-10s %-24s %-24s %6s %10s %12s %8s %10s %8s%n", "algorithm", "config",
+        "trace", "seed", "jobs", "turnaround", "util", "cost", "ms");
+    for (Run run : runs) {
+      if (run.stats == null) {
+        System.out.printf("%-10s %-24s %-24s %6d FAILED ==> %s%n", run.algorithm,
+            fileName(run.config), fileName(run.trace), run.seed, run.error);
+        continue;
+      }
+      System.out.printf(Locale.ROOT, "%-10s %-24s %-24s %6d %10d %12.1f %7.1f%% %10.2f %8.0f%s%n",
+          run.algorithm, fileName(run.config), fileName(run.trace), run.seed,
+          run.stats.jobsCompleted, run.stats.avgTurnaroundTime, run.stats.avgUtilisation * 100,
+          run.stats.totalCost, run.wallNanos / 1e6, run.exit == 0 ? "" : " (exit " + run.exit + ")");
+    }
+
+    // Per algorithm averages over every config, trace and seed it ran on
+    Map<String, double[]> totals = new LinkedHashMap<>();
+    for (Run run : runs) {
+      if (run.stats != null) {
+        double[] total = totals.computeIfAbsent(run.algorithm, algorithm -> new double[4]);
+        total[0] += run.stats.avgTurnaroundTime;
+        total[1] += run.stats.avgUtilisation;
+        total[2] += run.stats.totalCost;
+        total[3]++;
+      }
+    }
+    System.out.printf("%n%-10s %6s %16s %10s %14s%n", "algorithm", "runs", "mean turnaround",
+        "mean util", "mean cost");
+    for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+      double[] total = entry.getValue();
+      System.out.printf(Locale.ROOT, "%-10s %6.0f %16.1f %9.1f%% %14.2f%n", entry.getKey(),
+          total[3], total[0] / total[3], total[1] / total[3] * 100, total[2] / total[3]);
+    }
+
+    long simulatedNanos = 0;
+    for (Run run : runs) {
+      simulatedNanos += run.wallNanos;
+    }
+    System.out.printf(Locale.ROOT, "%n# %d runs in %.1f s (%.1f s of simulation, %.1fx)%n",
+        runs.size(), elapsedNanos / 1e9, simulatedNanos / 1e9,
+        (double) simulatedNanos / Math.max(elapsedNanos, 1));
+  }
+
+  private static void writeCSV(List<Run> runs, String path) {
+    try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+      out.println(CSV_HEADER);
+      for (Run run : runs) {
+        SimServer.Stats stats = (run.stats != null) ? run.stats : new SimServer.Stats();
+        out.printf(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%d,%.2f,%.2f,%.2f,%.4f,%.2f,%d,%d,%.1f%n",
+            run.algorithm, run.config, run.trace == null ? "" : run.trace, run.seed, run.exit,
+            stats.jobsCompleted, stats.jobsUnscheduled, stats.avgWaitingTime,
+            stats.avgExecutionTime, stats.avgTurnaroundTime, stats.avgUtilisation,
+            stats.totalCost, stats.serversUsed, run.decisions, run.wallNanos / 1e6);
+      }
+    } catch (IOException e) {
+      System.out.println("IOException ==> " + e.getMessage());
+    }
+  }
+
+  private static String fileName(String path) {
+    if (path == null) {
+      return "-";
+    }
+    int separator = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+    return path.substring(separator + 1);
+  }
+
+  public static void main(String args[]) {
+    Sweep sweep = new Sweep();
+    List<String> algorithms = Arrays.asList("cf");
+    List<String> configs = Arrays.asList("ds-system.xml");
+    List<String> traces = null;
+    List<String> seeds = Arrays.asList("0");
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    String csvPath = null;
+
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-a":
+          algorithms = Arrays.asList(args[i + 1].split(","));
+          break;
+        case "-c":
+          configs = Arrays.asList(args[i + 1].split(","));
+          break;
+        case "-jobs":
+          traces = Arrays.asList(args[i + 1].split(","));
+          break;
+        case "-g":
+          sweep.numOfJobs = Long.parseLong(args[i + 1]);
+          break;
+        case "-seed":
+          seeds = Arrays.asList(args[i + 1].split(","));
+          break;
+        case "-rv":
+          sweep.runTimeVariance = Double.parseDouble(args[i + 1]);
+          break;
+        case "-rs":
+          sweep.runTimeScale = Double.parseDouble(args[i + 1]);
+          break;
+        case "-mtbf":
+          sweep.meanTimeBetweenFailures = Integer.parseInt(args[i + 1]);
+          break;
+        case "-mttr":
+          sweep.meanRecoveryTime = Integer.parseInt(args[i + 1]);
+          break;
+        case "-o":
+          String[] option = args[i + 1].split("=", 2);
+          sweep.policyOptions.setProperty(option[0], option.length > 1 ? option[1] : "");
+          break;
+        case "-q":
+          sweep.queueWaitThreshold = Integer.parseInt(args[i + 1]);
+          break;
+        case "-r":
+          sweep.rebalanceBudget = Integer.parseInt(args[i + 1]);
+          break;
+        case "-b":
+          sweep.batchSize = Integer.parseInt(args[i + 1]);
+          break;
+        case "-p":
+          sweep.predictorCapacity = Integer.parseInt(args[i + 1]);
+          break;
+        case "-term":
+          sweep.idleHoldFactor = Double.parseDouble(args[i + 1]);
+          break;
+        case "-j":
+          parallelism = Math.max(1, Integer.parseInt(args[i + 1]));
+          break;
+        case "-t":
+          sweep.inMemory = args[i + 1].equals("memory");
+          break;
+        case "-csv":
+          csvPath = args[i + 1];
+          break;
+        default:
+          break;
+      }
+    }
+
+    for (String algorithm : algorithms) {
+      if (SchedulingPolicy.load(algorithm) == null) {
+        System.out.println("Unknown policy ==> " + algorithm + ", available: "
+            + SchedulingPolicy.names());
+        System.exit(1);
+      }
+    }
+
+    // Without traces (or -g) every config replays its own jobs
+    List<Run> runs = new ArrayList<>();
+    for (String config : configs) {
+      for (String trace : (traces != null ? traces : Arrays.asList((String) null))) {
+        for (String seed : seeds) {
+          for (String algorithm : algorithms) {
+            runs.add(new Run(algorithm, config, trace, Long.parseLong(seed)));
+          }
+        }
+      }
+    }
+
+    long start = System.nanoTime();
+    sweep.sweep(runs, parallelism);
+    printReport(runs, System.nanoTime() - start);
+    if (csvPath != null) {
+      writeCSV(runs, csvPath);
+    }
+  }
+}
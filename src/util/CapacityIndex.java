@@ -0,0 +1,102 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Servers ordered by available cores, with available memory and server index as secondary keys.
+ *
+ * <p>
+ * Each server is a single packed long (core | memory | index) kept in a sorted primitive array,
+ * so a lookup is a binary search followed by a short forward/backward walk, and an update is a
+ * binary search plus one array shift. No objects are allocated after construction.
+ * </p>
+ */
+public class CapacityIndex {
+  private static final int INDEX_BITS = 20;
+  private static final int MEMORY_BITS = 25;
+  private static final int CORE_BITS = 63 - INDEX_BITS - MEMORY_BITS;
+  private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+  private static final long MEMORY_MASK = (1L << MEMORY_BITS) - 1;
+  private static final long CORE_MASK = (1L << CORE_BITS) - 1;
+
+  public static final int MAX_SERVERS = 1 << INDEX_BITS;
+
+  private final long[] keys;
+  private final long[] serverKeys;
+  private int size = 0;
+
+  public CapacityIndex(int capacity) {
+    if (capacity > MAX_SERVERS) {
+      throw new IllegalArgumentException("Too many servers to index: " + capacity);
+    }
+    keys = new long[capacity];
+    serverKeys = new long[capacity];
+  }
+
+  public void add(int server, int core, int memory) {
+    long key = pack(server, core, memory);
+    int pos = -(Arrays.binarySearch(keys, 0, size, key) + 1);
+    System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+    keys[pos] = key;
+    serverKeys[server] = key;
+    size++;
+  }
+
+  public void update(int server, int core, int memory) {
+    long oldKey = serverKeys[server];
+    long newKey = pack(server, core, memory);
+    if (oldKey == newKey) {
+      return;
+    }
+
+    int from = Arrays.binarySearch(keys, 0, size, oldKey);
+    int to = -(Arrays.binarySearch(keys, 0, size, newKey) + 1);
+
+    // Shift the entries in between by one slot instead of a remove followed by an insert
+    if (to > from) {
+      to--;
+      System.arraycopy(keys, from + 1, keys, from, to - from);
+    } else {
+      System.arraycopy(keys, to, keys, to + 1, from - to);
+    }
+    keys[to] = newKey;
+    serverKeys[server] = newKey;
+  }
+
+  /**
+   * Position of the first server with at least the given number of available cores, or size()
+   * if there is none.
+   */
+  public int ceiling(int reqCore) {
+    if (reqCore > CORE_MASK) {
+      return size;
+    }
+    long key = ((long) Math.max(reqCore, 0)) << (MEMORY_BITS + INDEX_BITS);
+    int pos = Arrays.binarySearch(keys, 0, size, key);
+    return pos >= 0 ? pos : -(pos + 1);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int serverAt(int pos) {
+    return (int) (keys[pos] & INDEX_MASK);
+  }
+
+  public int coreAt(int pos) {
+    return (int) (keys[pos] >>> (MEMORY_BITS + INDEX_BITS));
+  }
+
+  public int memoryAt(int pos) {
+    return (int) ((keys[pos] >>> INDEX_BITS) & MEMORY_MASK);
+  }
+
+  // Negative values are clamped to 0 and oversized values saturate, which keeps the ordering
+  // correct for any realistic ds-system.xml
+  private static long pack(int server, int core, int memory) {
+    long c = Math.min(Math.max(core, 0), CORE_MASK);
+    long m = Math.min(Math.max(memory, 0), MEMORY_MASK);
+    return (c << (MEMORY_BITS + INDEX_BITS)) | (m << INDEX_BITS) | server;
+  }
+}
@@ -1,24 +1,33 @@
 package util;
 
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import util.enums.Command;
 import util.enums.ServerCommand;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStreamReader;
+import util.enums.Transport;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class ClientServerConnection {
     private boolean debug = false;
     private final String EMPTY_STRING = "";
-    private final String LINE_BREAK = "\n";
+    // sendPipelined() response for a message ds-server answered with ERR
+    public static final int ERROR_RESPONSE = -1;
+    private static final byte[][] ERROR_TOKENS = {"ERR".getBytes(), "ERR:".getBytes()};
+
     private final String WHITESPACE = " ";
     private final int DEFAULT_SERVER_PORT = 50000;
     private final String DEFAULT_SERVER_ADDRESS = "localhost";
 
     private Socket socket;
-    private DataOutputStream out;
-    private BufferedReader in;
+    private ProtocolWriter out;
+    private ProtocolReader in;
     private String receivedMsg = EMPTY_STRING;
     private String sentMsg = EMPTY_STRING;
 
@@ -26,6 +35,31 @@ public class ClientServerConnection {
     private String serverAddress;
     private boolean connected = false;
 
+    private Transport transport = Transport.STREAM;
+    private Boolean tcpNoDelay = null;
+    private boolean autoFlush = true;
+
+    // Time spent blocked on responses, only measured when enabled
+    private boolean timed = false;
+    private long networkWaitNanos = 0;
+
+    // Records every message sent and received, only when enabled
+    private SessionRecorder recorder = null;
+    private boolean endOfStream = false;
+
+    // With a reader thread, messages are read ahead into readMessages and handed over to 'received'
+    private static final int READ_AHEAD = 64;
+    private boolean readerThread = false;
+    private BlockingQueue<Message> readMessages = null;
+    private BlockingQueue<Message> freeMessages = null;
+    private ProtocolReader received;
+
+    // A message read ahead, length -1 marks the end of the stream
+    private static class Message {
+        byte[] bytes = new byte[256];
+        int length;
+    }
+
 
     public ClientServerConnection() {
         this.setServerAddress(DEFAULT_SERVER_ADDRESS);
@@ -37,15 +71,41 @@ public class ClientServerConnection {
         this.setServerPort(serverPort);
     }
 
+    /**
+     * Connection over already open channels, e.g. an in-memory pipe to a simulated ds-server.
+     */
+    public ClientServerConnection(ReadableByteChannel source, WritableByteChannel sink) {
+        this.in = new ProtocolReader(source);
+        this.received = in;
+        this.out = new ProtocolWriter(sink);
+        this.connected = true;
+    }
+
     public void connect() {
         if (connected) {
             // Connection has already been established
             return;
         }
         try {
-            socket = new Socket(serverAddress, serverPort);
-            out = new DataOutputStream(socket.getOutputStream());
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            if (transport == Transport.NIO) {
+                // Blocking SocketChannel with direct buffers, TCP_NODELAY unless told otherwise
+                SocketChannel channel =
+                        SocketChannel.open(new InetSocketAddress(serverAddress, serverPort));
+                socket = channel.socket();
+                socket.setTcpNoDelay(tcpNoDelay == null || tcpNoDelay);
+                out = new ProtocolWriter(channel);
+                in = new ProtocolReader(channel);
+                received = in;
+            } else {
+                socket = new Socket(serverAddress, serverPort);
+                if (tcpNoDelay != null) {
+                    socket.setTcpNoDelay(tcpNoDelay);
+                }
+                out = new ProtocolWriter(socket.getOutputStream());
+                in = new ProtocolReader(socket.getInputStream());
+                received = in;
+            }
+            connected = true;
         } catch (IOException e) {
             System.out.println("IOException ==> " + e.getMessage());
         }
@@ -55,43 +115,173 @@ public class ClientServerConnection {
         send(cmd, EMPTY_STRING);
     }
 
+    /**
+     * Send a message. With auto flush disabled the message is only buffered, and goes out together
+     * with any other buffered messages on the next flush() or recieve().
+     */
     public void send(Command cmd, String params) {
-        String message;
-        if (!params.isEmpty()) {
-            message = cmd + WHITESPACE + params + LINE_BREAK;
-        } else {
-            message = cmd + LINE_BREAK;
+        out.write(cmd, params);
+        if (recorder != null) {
+            recorder.recordSent(cmd, params);
+        }
+        if (autoFlush) {
+            flush();
         }
 
+        if (debug) {
+            System.out.println("SENT " + cmd + (params.isEmpty() ? EMPTY_STRING : WHITESPACE + params));
+        }
+    }
+
+    public void flush() {
         try {
-            out.write(message.getBytes());
             out.flush();
         } catch (IOException e) {
             System.err.println("An error occurred while sending the message to server: " + e.getMessage());
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Pipelined request/response: every message is written with a single buffered write and
+     * flush, then the integer responses are read back in the same order they were sent. A
+     * message ds-server answers with ERR, e.g. an EJWT for a server that has just failed, gets
+     * ERROR_RESPONSE.
+     */
+    public int[] sendPipelined(Command cmd, List<String> paramsList) {
+        for (String params : paramsList) {
+            out.write(cmd, params);
+            if (recorder != null) {
+                recorder.recordSent(cmd, params);
+            }
+            if (debug) {
+                System.out.println("SENT " + cmd + WHITESPACE + params);
+            }
+        }
+        flush();
 
-        if (debug) {
-            System.out.print("SENT " + message);
+        int[] responses = new int[paramsList.size()];
+        for (int i = 0; i < responses.length; i++) {
+            ProtocolReader response = recieveMessage();
+            responses[i] = (response.tokenCount() == 0 || response.tokenIndex(0, ERROR_TOKENS) >= 0)
+                    ? ERROR_RESPONSE : response.intToken(0);
         }
+        return responses;
     }
 
     public String recieve()  {
+        recieveMessage();
+        return getReceivedMessage();
+    }
+
+    /**
+     * Receive the next message without creating a String for it. The returned reader holds the
+     * tokenised message until the next call.
+     */
+    public ProtocolReader recieveMessage() {
+        // Never wait for a response to a message that is still buffered
+        if (!out.isEmpty()) {
+            flush();
+        }
+
+        receivedMsg = null;
+        long start = timed ? System.nanoTime() : 0;
         try {
-            receivedMsg = in.readLine();
+            if (!(readerThread ? takeMessage() : in.readLine())) {
+                receivedMsg = EMPTY_STRING;
+                endOfStream = true;
+            } else if (recorder != null) {
+                recorder.recordReceived(received);
+            }
+            if (timed) {
+                networkWaitNanos += System.nanoTime() - start;
+            }
         } catch (IOException e) {
             System.err.println("An error occurred while recieving a message from server: " + e.getMessage());
             e.printStackTrace();
+            receivedMsg = EMPTY_STRING;
         }
 
         if (debug) {
-            System.out.println("RECV " + receivedMsg);
+            System.out.println("RECV " + getReceivedMessage());
         }
-        return this.receivedMsg;
+        return received;
+    }
+
+    /**
+     * Read messages on a background thread from now on. The thread reads and splits messages as
+     * soon as ds-server sends them, while the caller is still busy with the previous one, so
+     * recieveMessage() mostly finds its message waiting. The order of messages is unchanged.
+     */
+    public void startReaderThread() {
+        if (readerThread) {
+            return;
+        }
+        connect();
+        readMessages = new ArrayBlockingQueue<>(READ_AHEAD);
+        freeMessages = new ArrayBlockingQueue<>(READ_AHEAD);
+        for (int i = 0; i < READ_AHEAD; i++) {
+            freeMessages.add(new Message());
+        }
+        ProtocolReader source = in;
+        received = new ProtocolReader();
+        readerThread = true;
+
+        Thread thread = new Thread(() -> readAhead(source), "ds-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readAhead(ProtocolReader source) {
+        try {
+            while (true) {
+                Message message = freeMessages.take();
+                boolean read;
+                try {
+                    read = source.readLine();
+                } catch (IOException e) {
+                    // Also how a socket closed after QUIT ends the thread
+                    read = false;
+                }
+                if (!read) {
+                    message.length = -1;
+                    readMessages.put(message);
+                    return;
+                }
+                int length = source.lineLength();
+                if (message.bytes.length < length) {
+                    message.bytes = Arrays.copyOf(message.bytes, Math.max(length, message.bytes.length * 2));
+                }
+                System.arraycopy(source.lineBuffer(), 0, message.bytes, 0, length);
+                message.length = length;
+                readMessages.put(message);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean takeMessage() throws IOException {
+        Message message;
+        try {
+            message = readMessages.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for ds-server");
+        }
+        if (message.length < 0) {
+            // Leave the end of the stream for any later reads
+            readMessages.add(message);
+            return false;
+        }
+        received.setLine(message.bytes, message.length);
+        freeMessages.add(message);
+        return true;
     }
 
     public int close() {
         int exit = 0;
+        this.autoFlush = true;
         this.send(Command.QUIT);
         if (!this.recieve().equals(ServerCommand.QUIT.toString())) {
             exit = 1;
@@ -100,7 +290,9 @@ public class ClientServerConnection {
         try {
             out.close();
             in.close();
-            socket.close();
+            if (socket != null) {
+                socket.close();
+            }
         } catch (IOException e){
             System.err.println("An error occurred while closing socket/IO streams: " + e.getMessage());
             e.printStackTrace();
@@ -108,6 +300,53 @@ public class ClientServerConnection {
         return exit;
     }
 
+    /**
+     * Select the transport used by connect(): classic socket streams or an NIO SocketChannel.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public void setAutoFlush(boolean autoFlush) {
+        this.autoFlush = autoFlush;
+        if (autoFlush && connected) {
+            flush();
+        }
+    }
+
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // ds-server closed the connection, e.g. a replay ran out of recorded messages
+    public boolean isEndOfStream() {
+        return endOfStream;
+    }
+
+    public void setTimed(boolean timed) {
+        this.timed = timed;
+    }
+
+    public long getNetworkWaitNanos() {
+        return networkWaitNanos;
+    }
+
+    public long getBytesSent() {
+        return out.getBytesWritten();
+    }
+
+    public long getBytesReceived() {
+        return in.getBytesRead();
+    }
+
+    public long getRoundTrips() {
+        return out.getFlushes();
+    }
+
     private void setServerAddress(String serverAddress) {
         this.serverAddress = serverAddress;
     }
@@ -129,6 +368,9 @@ public class ClientServerConnection {
     }
 
     public String getReceivedMessage() {
+        if (receivedMsg == null) {
+            receivedMsg = received.line();
+        }
         return this.receivedMsg;
     }
 }
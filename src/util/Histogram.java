@@ -0,0 +1,86 @@
+package util;
+
+/**
+ * Fixed size log-linear histogram of non-negative long values, in the style of HdrHistogram.
+ *
+ * <p>
+ * Values below 64 are counted exactly. Larger values fall into 32 linear sub-buckets per power of
+ * two, which bounds the relative error of any reported percentile to about 3%. Recording is a
+ * couple of bit operations and an array increment, with no allocation.
+ * </p>
+ */
+public class Histogram {
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+  private final long[] counts =
+      new long[SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF];
+  private long totalCount = 0;
+  private long min = Long.MAX_VALUE;
+  private long max = 0;
+  private double sum = 0;
+
+  public void record(long value) {
+    value = Math.max(value, 0);
+    counts[indexOf(value)]++;
+    totalCount++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public long getCount() {
+    return totalCount;
+  }
+
+  public long getMin() {
+    return totalCount == 0 ? 0 : min;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return totalCount == 0 ? 0 : sum / totalCount;
+  }
+
+  /**
+   * Smallest recorded value (within the bucket precision) that the given percentage of values
+   * are less than or equal to, e.g. 99.9 for the 99.9th percentile.
+   */
+  public long getPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      if (cumulative >= target) {
+        return Math.min(upperBoundOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // The top SUB_BUCKET_BITS bits of the value select the sub-bucket within its power of two
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    int subBucket = (int) (value >>> shift);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+  }
+
+  private static long upperBoundOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
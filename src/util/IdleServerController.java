@@ -0,0 +1,179 @@
+package util;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Decides which idle servers to terminate, so the rented fleet shrinks again once a burst has
+ * passed instead of staying at its peak size.
+ *
+ * <p>
+ * Keeping an idle server costs its hourlyRate per second, while terminating it costs a re-boot on
+ * its next job: bootupTime seconds of rental, plus bootupTime seconds of delay for that job,
+ * weighted against a second of the cheapest server's rental as in CA. The break-even idle time is
+ * the bootupTime scaled by that sum, so expensive servers are released sooner than cheap ones.
+ * Terminating a server once it has been idle for the break-even time (the ski rental rule) never
+ * costs more than twice what the best choice in hindsight would have.
+ * </p>
+ *
+ * <p>
+ * Hysteresis: if a server type boots again within the break-even time of one of its
+ * terminations, keeping the server would have been cheaper, so the type's hold time doubles (up
+ * to MAX_BACKOFF times the break-even). A termination that proved right halves it again. A bursty
+ * type therefore keeps its servers between bursts, and a type that stays quiet is released.
+ * </p>
+ */
+public class IdleServerController {
+  private static final int MAX_BACKOFF = 64;
+
+  private final ServerTable table;
+  private final double holdFactor;
+  // Seconds of idling that cost as much as a re-boot, by row, -1 for servers never terminated
+  private final long[] breakEven;
+  private final int[] idleSince;
+  // Hold time multiplier and time of the latest unjudged termination, by server type ID
+  private int[] backoff = new int[0];
+  private int[] lastTermination = new int[0];
+  // Idle servers by due time, i.e. (due << 32 | row), checked against idleSince when taken
+  private final PriorityQueue<Long> dueServers = new PriorityQueue<>();
+
+  private long terminations = 0;
+  private long thrashes = 0;
+
+  /**
+   * @param holdFactor multiple of the break-even idle time a server is held before termination,
+   *        e.g. 1 for the ski rental rule
+   * @param delayWeight weight of a second of delay for the job that re-boots a server against a
+   *        second of the cheapest server's rental, 0 counts only the rental cost
+   */
+  public IdleServerController(ServerState serverState, double holdFactor, double delayWeight) {
+    this.table = serverState.getTable();
+    this.holdFactor = holdFactor;
+
+    double cheapestRate = Double.MAX_VALUE;
+    for (int row = 0; row < serverState.size(); row++) {
+      ServerXML type = serverState.getServerTypeAt(row);
+      if (type != null && type.hourlyRate > 0) {
+        cheapestRate = Math.min(cheapestRate, type.hourlyRate);
+      }
+    }
+
+    breakEven = new long[serverState.size()];
+    idleSince = new int[serverState.size()];
+    Arrays.fill(idleSince, -1);
+    for (int row = 0; row < serverState.size(); row++) {
+      ServerXML type = serverState.getServerTypeAt(row);
+      // Servers without a catalogue entry or rate are never worth terminating
+      breakEven[row] = (type == null || type.hourlyRate <= 0) ? -1
+          : (long) Math.ceil(type.bootupTime * (1 + delayWeight * cheapestRate / type.hourlyRate));
+    }
+  }
+
+  // ############
+  // ## Events ##
+  // ############
+
+  /**
+   * A job is about to be scheduled or migrated to the row. Booting a type again soon after one of
+   * its terminations counts as thrash.
+   */
+  public void beforeSchedule(int row, int time) {
+    idleSince[row] = -1;
+    if (table.status[row] != ServerTable.INACTIVE) {
+      return;
+    }
+    int type = table.typeID[row];
+    if (type < lastTermination.length && lastTermination[type] >= 0) {
+      if (time - lastTermination[type] < breakEven[row]) {
+        backoff[type] = Math.min(backoff[type] * 2, MAX_BACKOFF);
+        thrashes++;
+      } else {
+        backoff[type] = Math.max(backoff[type] / 2, 1);
+      }
+      lastTermination[type] = -1;
+    }
+  }
+
+  /**
+   * A job completed on the row. Starts its idle time if the model has no jobs left on it.
+   */
+  public void afterComplete(int row, int time) {
+    if (breakEven[row] < 0 || table.status[row] != ServerTable.IDLE || idleSince[row] >= 0) {
+      return;
+    }
+    idleSince[row] = time;
+    dueServers.add((time + holdTime(row)) << 32 | row);
+  }
+
+  public void terminated(int row, int time) {
+    idleSince[row] = -1;
+    int type = table.typeID[row];
+    if (type >= backoff.length) {
+      int length = Math.max(type + 1, backoff.length * 2);
+      int from = backoff.length;
+      backoff = Arrays.copyOf(backoff, length);
+      lastTermination = Arrays.copyOf(lastTermination, length);
+      Arrays.fill(backoff, from, length, 1);
+      Arrays.fill(lastTermination, from, length, -1);
+    }
+    lastTermination[type] = time;
+    terminations++;
+  }
+
+  // ##############
+  // ## Decision ##
+  // ##############
+
+  /**
+   * Whether any server is due for termination at the time, without taking it.
+   */
+  public boolean hasDue(int time) {
+    Long head;
+    while ((head = dueServers.peek()) != null && !isCurrent(head)) {
+      dueServers.poll();
+    }
+    return head != null && (head >>> 32) <= time;
+  }
+
+  /**
+   * Take the rows of the servers due for termination at the time into 'rows', and return how
+   * many there are. The caller terminates them and reports each one with terminated(), a server
+   * that refused is tracked again from its next completion.
+   */
+  public int takeDue(int time, int[] rows) {
+    int count = 0;
+    while (count < rows.length && hasDue(time)) {
+      int row = (int) (long) dueServers.poll();
+      long due = idleSince[row] + holdTime(row);
+      if (due > time) {
+        // The type's hold time grew, or the server became idle again, since the entry
+        dueServers.add(due << 32 | row);
+        continue;
+      }
+      // Taken, so a second entry of the row is stale
+      idleSince[row] = -1;
+      rows[count++] = row;
+    }
+    return count;
+  }
+
+  public long getTerminations() {
+    return terminations;
+  }
+
+  public long getThrashes() {
+    return thrashes;
+  }
+
+  private long holdTime(int row) {
+    int type = table.typeID[row];
+    int multiplier = (type < backoff.length) ? backoff[type] : 1;
+    return (long) Math.ceil(holdFactor * multiplier * breakEven[row]);
+  }
+
+  // Entries of servers that have since been given a job or terminated are stale
+  private boolean isCurrent(long entry) {
+    int row = (int) entry;
+    return idleSince[row] >= 0 && table.status[row] == ServerTable.IDLE;
+  }
+}
@@ -1,6 +1,11 @@
 package util;
 
 public class Job {
+    // LSTJ job states
+    public static final int SUBMITTED = 0;
+    public static final int WAITING = 1;
+    public static final int RUNNING = 2;
+
     public int jobID;
     public int jobState;
     public int submitTime;
@@ -9,6 +14,8 @@ public class Job {
     public int reqCore;
     public int reqMemory;
     public int reqDisk;
+    // Run time the client expects, the estimate unless a RuntimePredictor corrected it
+    public int predictedRunTime;
 
     public Job() {
         this.jobID = -1;
@@ -19,6 +26,7 @@ public class Job {
         this.reqCore = -1;
         this.reqMemory = -1;
         this.reqDisk = -1;
+        this.predictedRunTime = -1;
     }
 
     public Job(int jobID, int submitTime, int estRunTime, int core, int memory, int disk) {
@@ -30,6 +38,7 @@ public class Job {
         this.reqCore = core;
         this.reqMemory = memory;
         this.reqDisk = disk;
+        this.predictedRunTime = estRunTime;
     }
 
     public Job(int jobID, int jobState, int submitTime, int startTime, int estRunTime, int core,
@@ -42,6 +51,7 @@ public class Job {
         this.reqCore = core;
         this.reqMemory = memory;
         this.reqDisk = disk;
+        this.predictedRunTime = estRunTime;
     }
 
 
@@ -69,12 +79,14 @@ public class Job {
     return job;
   }
 
+  // JOBN job info format
+  // JOBN submitTime jobID estRuntime core memory disk
   public static Job parseJobInfo(String[] jobInfo) {
     Job job = null;
     try {
       int submitTime = Integer.parseInt(jobInfo[1]);
       int jobID = Integer.parseInt(jobInfo[2]);
-      int estRunTime = Integer.parseInt(jobInfo[4]);
+      int estRunTime = Integer.parseInt(jobInfo[3]);
       int core = Integer.parseInt(jobInfo[4]);
       int memory = Integer.parseInt(jobInfo[5]);
       int disk = Integer.parseInt(jobInfo[6]);
@@ -87,5 +99,52 @@ public class Job {
     }
     return job;
   }
-  
+
+  /**
+   * Parse the current LSTJ record of the reader into an existing holder, without allocating.
+   * LSTJ record format: jobID jobState submitTime startTime estRunTime core memory disk
+   */
+  public static boolean parseJobInfoFromLSTJ(ProtocolReader jobInfo, Job job) {
+    try {
+      job.jobID = jobInfo.intToken(0);
+      job.jobState = jobInfo.intToken(1);
+      job.submitTime = jobInfo.intToken(2);
+      job.startTime = jobInfo.intToken(3);
+      job.estRunTime = jobInfo.intToken(4);
+      job.reqCore = jobInfo.intToken(5);
+      job.reqMemory = jobInfo.intToken(6);
+      job.reqDisk = jobInfo.intToken(7);
+      job.predictedRunTime = job.estRunTime;
+      return true;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      System.out.println("ArrayIndexOutOfBoundsException ==> " + e.getMessage());
+    } catch (NumberFormatException e) {
+      System.out.println("NumberFormatException ==> " + e.getMessage());
+    }
+    return false;
+  }
+
+  /**
+   * Parse the current JOBN/JOBP message of the reader into an existing holder, without
+   * allocating.
+   */
+  public static boolean parseJobInfo(ProtocolReader jobInfo, Job job) {
+    try {
+      job.submitTime = jobInfo.intToken(1);
+      job.jobID = jobInfo.intToken(2);
+      job.estRunTime = jobInfo.intToken(3);
+      job.reqCore = jobInfo.intToken(4);
+      job.reqMemory = jobInfo.intToken(5);
+      job.reqDisk = jobInfo.intToken(6);
+      job.jobState = -1;
+      job.startTime = -1;
+      job.predictedRunTime = job.estRunTime;
+      return true;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      System.out.println("ArrayIndexOutOfBoundsException ==> " + e.getMessage());
+    } catch (NumberFormatException e) {
+      System.out.println("NumberFormatException ==> " + e.getMessage());
+    }
+    return false;
+  }
 }
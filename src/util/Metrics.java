@@ -0,0 +1,214 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per job scheduling decision metrics.
+ *
+ * <p>
+ * Each decision is bracketed by beginJob()/endJob(), which sample the connection counters to split
+ * the decision latency into network wait and local compute, and to count the round-trips and GETS
+ * records it took. Distributions are kept in Histograms, so recording never allocates, except when
+ * a server is chosen for the first time.
+ * </p>
+ */
+public class Metrics {
+  private final ClientServerConnection connection;
+
+  private final Histogram decisionLatency = new Histogram();
+  private final Histogram networkWait = new Histogram();
+  private final Histogram localCompute = new Histogram();
+  private final Histogram roundTrips = new Histogram();
+  private final Histogram getsRecords = new Histogram();
+  private final Map<String, long[]> chosenServers = new TreeMap<>();
+  private long jobs = 0;
+  private long totalGetsRecords = 0;
+  private long migrations = 0;
+  private long migrationSavedSeconds = 0;
+  private long rebalanceRoundTrips = 0;
+  private long terminations = 0;
+  private long terminationRoundTrips = 0;
+  private RuntimePredictor runtimePredictor = null;
+
+  private long jobStart;
+  private long jobNetworkWaitStart;
+  private long jobRoundTripsStart;
+  private long jobGetsRecordsStart;
+
+  public Metrics(ClientServerConnection connection) {
+    this.connection = connection;
+    connection.setTimed(true);
+  }
+
+  public void beginJob() {
+    jobStart = System.nanoTime();
+    jobNetworkWaitStart = connection.getNetworkWaitNanos();
+    jobRoundTripsStart = connection.getRoundTrips();
+    jobGetsRecordsStart = totalGetsRecords;
+  }
+
+  public void endJob(Server chosenServer) {
+    long latency = System.nanoTime() - jobStart;
+    long wait = connection.getNetworkWaitNanos() - jobNetworkWaitStart;
+    jobs++;
+    decisionLatency.record(latency);
+    networkWait.record(wait);
+    localCompute.record(latency - wait);
+    roundTrips.record(connection.getRoundTrips() - jobRoundTripsStart);
+    getsRecords.record(totalGetsRecords - jobGetsRecordsStart);
+
+    if (chosenServer != null) {
+      long[] counts = chosenServers.get(chosenServer.serverType);
+      if (counts == null || counts.length <= chosenServer.serverID) {
+        counts = Arrays.copyOf(counts == null ? new long[0] : counts,
+            Math.max(chosenServer.serverID + 1, counts == null ? 1 : counts.length * 2));
+        chosenServers.put(chosenServer.serverType, counts);
+      }
+      counts[chosenServer.serverID]++;
+    }
+  }
+
+  public void addGetsRecords(int numOfRecords) {
+    totalGetsRecords += numOfRecords;
+  }
+
+  /**
+   * Record one rebalancing attempt: the jobs it migrated, their locally estimated reduction of
+   * waiting time in simulated seconds, and the round-trips it cost.
+   */
+  public void addRebalance(int migratedJobs, long savedSeconds, long roundTrips) {
+    migrations += migratedJobs;
+    migrationSavedSeconds += savedSeconds;
+    rebalanceRoundTrips += roundTrips;
+  }
+
+  // Idle servers terminated, and the round-trips their TERM messages cost
+  public void addTerminations(int terminatedServers, long roundTrips) {
+    terminations += terminatedServers;
+    terminationRoundTrips += roundTrips;
+  }
+
+  // Report the predictor's predictions and how many came from the job's own shape
+  public void setRuntimePredictor(RuntimePredictor runtimePredictor) {
+    this.runtimePredictor = runtimePredictor;
+  }
+
+  public long getJobs() {
+    return jobs;
+  }
+
+  // ############
+  // ## Output ##
+  // ############
+
+  public String toJSON() {
+    StringBuilder json = new StringBuilder("{");
+    json.append("\"jobs\":").append(jobs)
+        .append(",\"bytesSent\":").append(connection.getBytesSent())
+        .append(",\"bytesReceived\":").append(connection.getBytesReceived())
+        .append(",\"roundTrips\":").append(connection.getRoundTrips())
+        .append(",\"getsRecords\":").append(totalGetsRecords)
+        .append(",\"migrations\":").append(migrations)
+        .append(",\"migrationSavedSeconds\":").append(migrationSavedSeconds)
+        .append(",\"rebalanceRoundTrips\":").append(rebalanceRoundTrips)
+        .append(",\"terminations\":").append(terminations)
+        .append(",\"terminationRoundTrips\":").append(terminationRoundTrips);
+    if (runtimePredictor != null) {
+      json.append(",\"predictions\":").append(runtimePredictor.getPredictions())
+          .append(",\"predictorHits\":").append(runtimePredictor.getHits())
+          .append(",\"predictorHitRate\":").append(predictorHitRate());
+    }
+    appendJSON(json, "decisionLatencyNanos", decisionLatency);
+    appendJSON(json, "networkWaitNanos", networkWait);
+    appendJSON(json, "localComputeNanos", localCompute);
+    appendJSON(json, "roundTripsPerJob", roundTrips);
+    appendJSON(json, "getsRecordsPerJob", getsRecords);
+
+    json.append(",\"chosenServers\":{");
+    String separator = "";
+    for (Map.Entry<String, long[]> entry : chosenServers.entrySet()) {
+      json.append(separator).append('"').append(entry.getKey()).append("\":")
+          .append(Arrays.toString(trimmed(entry.getValue())).replace(" ", ""));
+      separator = ",";
+    }
+    return json.append("}}").toString();
+  }
+
+  private String predictorHitRate() {
+    long predictions = runtimePredictor.getPredictions();
+    return String.format(Locale.ROOT, "%.4f",
+        (predictions > 0) ? (double) runtimePredictor.getHits() / predictions : 0);
+  }
+
+  public String toCSV() {
+    StringBuilder csv = new StringBuilder("metric,count,min,mean,p50,p90,p99,p99.9,max\n");
+    appendCSV(csv, "decisionLatencyNanos", decisionLatency);
+    appendCSV(csv, "networkWaitNanos", networkWait);
+    appendCSV(csv, "localComputeNanos", localCompute);
+    appendCSV(csv, "roundTripsPerJob", roundTrips);
+    appendCSV(csv, "getsRecordsPerJob", getsRecords);
+
+    csv.append("\ntotal,value\n")
+        .append("jobs,").append(jobs).append('\n')
+        .append("bytesSent,").append(connection.getBytesSent()).append('\n')
+        .append("bytesReceived,").append(connection.getBytesReceived()).append('\n')
+        .append("roundTrips,").append(connection.getRoundTrips()).append('\n')
+        .append("getsRecords,").append(totalGetsRecords).append('\n')
+        .append("migrations,").append(migrations).append('\n')
+        .append("migrationSavedSeconds,").append(migrationSavedSeconds).append('\n')
+        .append("rebalanceRoundTrips,").append(rebalanceRoundTrips).append('\n')
+        .append("terminations,").append(terminations).append('\n')
+        .append("terminationRoundTrips,").append(terminationRoundTrips).append('\n');
+    if (runtimePredictor != null) {
+      csv.append("predictions,").append(runtimePredictor.getPredictions()).append('\n')
+          .append("predictorHits,").append(runtimePredictor.getHits()).append('\n')
+          .append("predictorHitRate,").append(predictorHitRate()).append('\n');
+    }
+
+    csv.append("\nserverType,serverID,jobs\n");
+    for (Map.Entry<String, long[]> entry : chosenServers.entrySet()) {
+      long[] counts = entry.getValue();
+      for (int id = 0; id < counts.length; id++) {
+        if (counts[id] > 0) {
+          csv.append(entry.getKey()).append(',').append(id).append(',').append(counts[id])
+              .append('\n');
+        }
+      }
+    }
+    return csv.toString();
+  }
+
+  private static void appendJSON(StringBuilder json, String name, Histogram histogram) {
+    json.append(",\"").append(name).append("\":{")
+        .append("\"count\":").append(histogram.getCount())
+        .append(",\"min\":").append(histogram.getMin())
+        .append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", histogram.getMean()))
+        .append(",\"p50\":").append(histogram.getPercentile(50))
+        .append(",\"p90\":").append(histogram.getPercentile(90))
+        .append(",\"p99\":").append(histogram.getPercentile(99))
+        .append(",\"p99.9\":").append(histogram.getPercentile(99.9))
+        .append(",\"max\":").append(histogram.getMax()).append('}');
+  }
+
+  private static void appendCSV(StringBuilder csv, String name, Histogram histogram) {
+    csv.append(name).append(',').append(histogram.getCount())
+        .append(',').append(histogram.getMin())
+        .append(',').append(String.format(Locale.ROOT, "%.1f", histogram.getMean()))
+        .append(',').append(histogram.getPercentile(50))
+        .append(',').append(histogram.getPercentile(90))
+        .append(',').append(histogram.getPercentile(99))
+        .append(',').append(histogram.getPercentile(99.9))
+        .append(',').append(histogram.getMax()).append('\n');
+  }
+
+  private static long[] trimmed(long[] counts) {
+    int length = counts.length;
+    while (length > 0 && counts[length - 1] == 0) {
+      length--;
+    }
+    return Arrays.copyOf(counts, length);
+  }
+}
@@ -0,0 +1,280 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Byte level reader for the ds-server protocol.
+ *
+ * <p>
+ * Reads one newline terminated message at a time into a reusable buffer and splits it on
+ * whitespace into token offsets, so integer fields can be parsed straight from the bytes without
+ * creating a String, a String[] or substrings per message. Strings are only created on request,
+ * and repeated tokens such as server types and states are interned in a small cache.
+ * </p>
+ */
+public class ProtocolReader {
+  private static final int BUFFER_SIZE = 8192;
+  private static final int MAX_CACHED_TOKENS = 256;
+
+  private final InputStream in;
+  private final ReadableByteChannel channel;
+  private final ByteBuffer channelBuffer;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int bufferPos = 0;
+  private int bufferLimit = 0;
+  private long bytesRead = 0;
+
+  private byte[] line = new byte[256];
+  private int lineLength = 0;
+  private int[] tokenStart = new int[16];
+  private int[] tokenEnd = new int[16];
+  private int tokenCount = 0;
+
+  private final byte[][] cachedBytes = new byte[MAX_CACHED_TOKENS][];
+  private final String[] cachedStrings = new String[MAX_CACHED_TOKENS];
+  private int cachedCount = 0;
+
+  public ProtocolReader(InputStream in) {
+    this.in = in;
+    this.channel = null;
+    this.channelBuffer = null;
+  }
+
+  public ProtocolReader(ReadableByteChannel channel) {
+    this.in = null;
+    this.channel = channel;
+    this.channelBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  // Holder for messages read by another reader, see setLine()
+  ProtocolReader() {
+    this.in = null;
+    this.channel = null;
+    this.channelBuffer = null;
+  }
+
+  /**
+   * Read the next message and tokenise it. Returns false at the end of the stream.
+   */
+  public boolean readLine() throws IOException {
+    lineLength = 0;
+    tokenCount = 0;
+    while (true) {
+      if (bufferPos == bufferLimit) {
+        bufferLimit = fill();
+        bufferPos = 0;
+        bytesRead += Math.max(bufferLimit, 0);
+        if (bufferLimit <= 0) {
+          bufferLimit = 0;
+          if (lineLength == 0) {
+            return false;
+          }
+          break;
+        }
+      }
+
+      byte b = buffer[bufferPos++];
+      if (b == '\n') {
+        break;
+      }
+      if (lineLength == line.length) {
+        line = grow(line);
+      }
+      line[lineLength++] = b;
+    }
+
+    // Drop the carriage return of CRLF terminated messages
+    if (lineLength > 0 && line[lineLength - 1] == '\r') {
+      lineLength--;
+    }
+    tokenise();
+    return true;
+  }
+
+  private int fill() throws IOException {
+    if (channel == null) {
+      return in.read(buffer, 0, BUFFER_SIZE);
+    }
+
+    channelBuffer.clear();
+    int read = channel.read(channelBuffer);
+    if (read > 0) {
+      channelBuffer.flip();
+      channelBuffer.get(buffer, 0, read);
+    }
+    return read;
+  }
+
+  private void tokenise() {
+    int i = 0;
+    while (i < lineLength) {
+      while (i < lineLength && isWhitespace(line[i])) {
+        i++;
+      }
+      if (i == lineLength) {
+        break;
+      }
+      if (tokenCount == tokenStart.length) {
+        tokenStart = Arrays.copyOf(tokenStart, tokenCount * 2);
+        tokenEnd = Arrays.copyOf(tokenEnd, tokenCount * 2);
+      }
+      tokenStart[tokenCount] = i;
+      while (i < lineLength && !isWhitespace(line[i])) {
+        i++;
+      }
+      tokenEnd[tokenCount++] = i;
+    }
+  }
+
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  public int tokenCount() {
+    return tokenCount;
+  }
+
+  /**
+   * Parse a token as a (possibly negative) decimal int without creating a String.
+   */
+  public int intToken(int index) {
+    checkToken(index);
+    int pos = tokenStart[index];
+    int end = tokenEnd[index];
+    boolean negative = line[pos] == '-';
+    if (negative) {
+      pos++;
+    }
+    if (pos == end) {
+      throw new NumberFormatException("For input string: \"" + token(index) + "\"");
+    }
+
+    long value = 0;
+    for (; pos < end; pos++) {
+      int digit = line[pos] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("For input string: \"" + token(index) + "\"");
+      }
+      value = value * 10 + digit;
+      if (value > Integer.MAX_VALUE + 1L) {
+        throw new NumberFormatException("For input string: \"" + token(index) + "\"");
+      }
+    }
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) {
+      throw new NumberFormatException("For input string: \"" + token(index) + "\"");
+    }
+    return (int) value;
+  }
+
+  public boolean tokenEquals(int index, byte[] ascii) {
+    checkToken(index);
+    int length = tokenEnd[index] - tokenStart[index];
+    if (length != ascii.length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (line[tokenStart[index] + i] != ascii[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Position of the token in the candidates, or -1 if it matches none of them.
+   */
+  public int tokenIndex(int index, byte[][] candidates) {
+    for (int i = 0; i < candidates.length; i++) {
+      if (tokenEquals(index, candidates[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The token as a String, shared between calls for the same bytes. Intended for small value
+   * sets such as server types and server states.
+   */
+  public String internToken(int index) {
+    for (int i = 0; i < cachedCount; i++) {
+      if (tokenEquals(index, cachedBytes[i])) {
+        return cachedStrings[i];
+      }
+    }
+
+    String token = token(index);
+    if (cachedCount < MAX_CACHED_TOKENS) {
+      cachedBytes[cachedCount] = token.getBytes(StandardCharsets.US_ASCII);
+      cachedStrings[cachedCount++] = token;
+    }
+    return token;
+  }
+
+  public String token(int index) {
+    checkToken(index);
+    return new String(line, tokenStart[index], tokenEnd[index] - tokenStart[index],
+        StandardCharsets.US_ASCII);
+  }
+
+  public String line() {
+    return new String(line, 0, lineLength, StandardCharsets.US_ASCII);
+  }
+
+  // The current message's bytes, valid up to lineLength() until the next readLine()
+  byte[] lineBuffer() {
+    return line;
+  }
+
+  int lineLength() {
+    return lineLength;
+  }
+
+  // Take over a message read elsewhere, e.g. by a reader thread, and tokenise it
+  void setLine(byte[] bytes, int length) {
+    if (line.length < length) {
+      line = Arrays.copyOf(line, Math.max(length, line.length * 2));
+    }
+    System.arraycopy(bytes, 0, line, 0, length);
+    lineLength = length;
+    tokenCount = 0;
+    tokenise();
+  }
+
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    } else if (in != null) {
+      in.close();
+    }
+  }
+
+  public static byte[][] encode(Enum<?>[] values) {
+    byte[][] encoded = new byte[values.length][];
+    for (int i = 0; i < values.length; i++) {
+      encoded[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+    }
+    return encoded;
+  }
+
+  private void checkToken(int index) {
+    if (index < 0 || index >= tokenCount) {
+      throw new ArrayIndexOutOfBoundsException(
+          "Index " + index + " out of bounds for length " + tokenCount);
+    }
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r';
+  }
+
+  private static byte[] grow(byte[] array) {
+    return Arrays.copyOf(array, array.length * 2);
+  }
+}
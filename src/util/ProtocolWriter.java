@@ -0,0 +1,152 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import util.enums.Command;
+
+/**
+ * Buffered writer for the ds-server protocol.
+ *
+ * <p>
+ * Messages are encoded as ASCII straight into a ByteBuffer (direct when writing to a channel),
+ * using the pre-encoded bytes of each Command, and only reach the socket on flush(). Several
+ * messages can therefore be coalesced into a single write.
+ * </p>
+ */
+public class ProtocolWriter {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final OutputStream out;
+  private final WritableByteChannel channel;
+  private ByteBuffer buffer;
+  private long bytesWritten = 0;
+  private long flushes = 0;
+
+  public ProtocolWriter(OutputStream out) {
+    this.out = out;
+    this.channel = null;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  }
+
+  public ProtocolWriter(WritableByteChannel channel) {
+    this.out = null;
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  /**
+   * Append 'cmd params\n' to the buffer. Params may be empty.
+   */
+  public void write(Command cmd, String params) {
+    byte[] cmdBytes = cmd.getBytes();
+    ensureCapacity(cmdBytes.length + params.length() + 2);
+    buffer.put(cmdBytes);
+    if (!params.isEmpty()) {
+      buffer.put((byte) ' ');
+      for (int i = 0; i < params.length(); i++) {
+        buffer.put((byte) params.charAt(i));
+      }
+    }
+    buffer.put((byte) '\n');
+  }
+
+  /**
+   * Append raw text, e.g. to build server responses. Lines are terminated with endLine().
+   */
+  public ProtocolWriter append(String text) {
+    ensureCapacity(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      buffer.put((byte) text.charAt(i));
+    }
+    return this;
+  }
+
+  public ProtocolWriter append(char c) {
+    ensureCapacity(1);
+    buffer.put((byte) c);
+    return this;
+  }
+
+  public ProtocolWriter append(long value) {
+    ensureCapacity(20);
+    if (value < 0) {
+      buffer.put((byte) '-');
+      value = -value;
+    }
+
+    // Digits are written least significant first, then reversed in place
+    int start = buffer.position();
+    do {
+      buffer.put((byte) ('0' + value % 10));
+      value /= 10;
+    } while (value > 0);
+    for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+      byte b = buffer.get(i);
+      buffer.put(i, buffer.get(j));
+      buffer.put(j, b);
+    }
+    return this;
+  }
+
+  public void endLine() {
+    append('\n');
+  }
+
+  public boolean isEmpty() {
+    return buffer.position() == 0;
+  }
+
+  public void flush() throws IOException {
+    if (buffer.position() == 0) {
+      return;
+    }
+
+    buffer.flip();
+    bytesWritten += buffer.remaining();
+    flushes++;
+    if (channel != null) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } else {
+      out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+      out.flush();
+    }
+    buffer.clear();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  // Every flush is followed by waiting for a response, i.e. one round-trip
+  public long getFlushes() {
+    return flushes;
+  }
+
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    } else {
+      out.close();
+    }
+  }
+
+  private void ensureCapacity(int length) {
+    if (buffer.remaining() >= length) {
+      return;
+    }
+
+    int capacity = buffer.capacity();
+    while (capacity - buffer.position() < length) {
+      capacity *= 2;
+    }
+    ByteBuffer larger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity)
+        : ByteBuffer.allocate(capacity);
+    buffer.flip();
+    larger.put(buffer);
+    buffer = larger;
+  }
+}
@@ -0,0 +1,108 @@
+package util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learns how far actual job run times deviate from their estimates.
+ *
+ * <p>
+ * Jobs are grouped by shape: cores, plus memory, disk and estimated run time on a log scale with
+ * four buckets per power of two. Each shape keeps a moving average of actual/estimated run time,
+ * fed from JCPL, and predictions scale the estimate by it. Unseen shapes fall back to the average
+ * over every job. At most 'capacity' shapes are kept, evicting the least recently used.
+ * </p>
+ */
+public class RuntimePredictor {
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // Weight of the newest sample in the moving averages
+  private static final double ALPHA = 0.2;
+
+  private static class Shape {
+    double ratio;
+    long samples = 0;
+  }
+
+  private final Map<Long, Shape> shapes;
+  private final Shape overall = new Shape();
+  private long predictions = 0;
+  private long hits = 0;
+
+  public RuntimePredictor(int capacity) {
+    shapes = new LinkedHashMap<Long, Shape>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Shape> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Predicted run time of a job, its estimate if nothing is known yet.
+   */
+  public int predict(Job job) {
+    predictions++;
+    Shape shape = shapes.get(keyOf(job));
+    if (shape != null) {
+      hits++;
+    } else if (overall.samples > 0) {
+      shape = overall;
+    } else {
+      return job.estRunTime;
+    }
+    return (int) Math.max(1, Math.round(job.estRunTime * shape.ratio));
+  }
+
+  /**
+   * Record the actual run time of a completed job, i.e. JCPL endTime - startTime.
+   */
+  public void record(Job job, int actualRunTime) {
+    if (job.estRunTime <= 0 || actualRunTime < 0) {
+      return;
+    }
+    double ratio = (double) actualRunTime / job.estRunTime;
+    update(overall, ratio);
+
+    long key = keyOf(job);
+    Shape shape = shapes.get(key);
+    if (shape == null) {
+      shape = new Shape();
+      shapes.put(key, shape);
+    }
+    update(shape, ratio);
+  }
+
+  public int size() {
+    return shapes.size();
+  }
+
+  public long getPredictions() {
+    return predictions;
+  }
+
+  // Predictions made from the job's own shape rather than the overall average
+  public long getHits() {
+    return hits;
+  }
+
+  private static void update(Shape shape, double ratio) {
+    shape.ratio = (shape.samples == 0) ? ratio : shape.ratio + ALPHA * (ratio - shape.ratio);
+    shape.samples++;
+  }
+
+  // core (28 bits) | memory bucket | disk bucket | estimated run time bucket (12 bits each)
+  private static long keyOf(Job job) {
+    return ((long) (job.reqCore & 0xFFFFFFF) << 36) | ((long) bucketOf(job.reqMemory) << 24)
+        | ((long) bucketOf(job.reqDisk) << 12) | bucketOf(job.estRunTime);
+  }
+
+  private static int bucketOf(int value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return Math.max(value, 0);
+    }
+    int exponent = 31 - Integer.numberOfLeadingZeros(value);
+    int subBucket = (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+  }
+}
@@ -0,0 +1,40 @@
+package util;
+
+import java.util.List;
+import util.enums.GETSMode;
+
+/**
+ * The client's view offered to a SchedulingPolicy. Only what the policy declared in requires() is
+ * available: the catalogue is null without CATALOGUE, the server state is null without
+ * SERVER_STATE, and the queries must not be used without SERVER_QUERIES.
+ */
+public interface SchedulingContext {
+  // The ds-system.xml server types
+  List<ServerXML> getCatalogue();
+
+  // The local shadow of the server states, kept up to date by the client
+  ServerState getServerState();
+
+  // Latest ds-server time seen
+  int getCurrentTime();
+
+  /**
+   * 'GETS mode core memory disk' round-trip. The returned list and its records are reused by the
+   * next query.
+   */
+  List<Server> getServers(GETSMode mode, int reqCore, int reqMemory, int reqDisk);
+
+  /**
+   * 'EJWT serverType serverID' of every server, in one pipelined round-trip. -1 for a server
+   * ds-server returned ERR for, e.g. one that has just failed.
+   */
+  int[] getEstimatedWaitingTimes(List<Server> servers);
+
+  /**
+   * Parallel scans over the server state's rows, or null when the client scans on one thread.
+   * Only available with SERVER_STATE.
+   */
+  default ShardedScan getShardedScan() {
+    return null;
+  }
+}
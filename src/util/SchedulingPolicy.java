@@ -0,0 +1,93 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import util.enums.StateRequirement;
+import util.policy.AdaptivePolicy;
+import util.policy.AllToLargestPolicy;
+import util.policy.BestFitPolicy;
+import util.policy.ClosestFitPolicy;
+import util.policy.CostAwarePolicy;
+import util.policy.FastestTurnaroundPolicy;
+import util.policy.FirstCapablePolicy;
+import util.policy.FirstFitPolicy;
+import util.policy.LargestRoundRobinPolicy;
+import util.policy.WorstFitPolicy;
+
+/**
+ * A scheduling algorithm: picks the server for each job.
+ *
+ * <p>
+ * The built-in policies are registered here, so they need nothing but their classes. Others are
+ * discovered with ServiceLoader, so a policy shipped in a separate jar with a
+ * 'META-INF/services/util.SchedulingPolicy' entry can be selected by name like the built-in ones; a
+ * built-in name cannot be taken over.
+ * A policy declares the state it needs in requires(), and the client only reads ds-system.xml,
+ * seeds its server-state model or issues queries for policies that need them.
+ * </p>
+ */
+public interface SchedulingPolicy {
+  // Name to select the policy with, e.g. "cf"
+  String getName();
+
+  /**
+   * State the policy uses, evaluated after configure().
+   */
+  default EnumSet<StateRequirement> requires() {
+    return EnumSet.of(StateRequirement.CATALOGUE, StateRequirement.SERVER_STATE);
+  }
+
+  /**
+   * Tuning options, e.g. "ejwt.confirm" or "cost.weight". Unknown options are ignored.
+   */
+  default void configure(Properties options) {
+  }
+
+  /**
+   * Choose the server for a job, or null if no server can run it. The job holder is reused by the
+   * client after the call.
+   */
+  Server schedule(Job job, SchedulingContext context);
+
+  /**
+   * A new instance of the named policy, or null if neither the built-in policies nor a provider on
+   * the class path have the name.
+   */
+  static SchedulingPolicy load(String name) {
+    for (SchedulingPolicy policy : all()) {
+      if (policy.getName().equals(name)) {
+        return policy;
+      }
+    }
+    return null;
+  }
+
+  static List<String> names() {
+    List<String> names = new ArrayList<>();
+    for (SchedulingPolicy policy : all()) {
+      names.add(policy.getName());
+    }
+    return names;
+  }
+
+  // New instances of the built-in policies, then of the providers on the class path
+  private static List<SchedulingPolicy> all() {
+    List<SchedulingPolicy> policies = new ArrayList<>(List.of(new FirstCapablePolicy(),
+        new FirstFitPolicy(), new BestFitPolicy(), new WorstFitPolicy(), new AllToLargestPolicy(),
+        new LargestRoundRobinPolicy(), new ClosestFitPolicy(), new FastestTurnaroundPolicy(),
+        new CostAwarePolicy(), new AdaptivePolicy()));
+    List<String> builtIn = new ArrayList<>();
+    for (SchedulingPolicy policy : policies) {
+      builtIn.add(policy.getName());
+    }
+    for (SchedulingPolicy policy : ServiceLoader.load(SchedulingPolicy.class)) {
+      if (!builtIn.contains(policy.getName())) {
+        policies.add(policy);
+      }
+    }
+    return policies;
+  }
+}
@@ -24,6 +24,12 @@ public class Server {
     this.runningJobs = runningJobs;
   }
 
+  public Server() {
+    this(null, -1, null, -1, -1, -1, -1, -1, -1);
+  }
+
+  // GETS server record format
+  // serverType serverID state curStartTime core memory disk #wJobs #rJobs
   public static Server parseServerInfo(String[] serverInfo) {
     Server server = null;
     try {
@@ -46,4 +52,27 @@ public class Server {
     }
     return server;
   }
+
+  /**
+   * Parse the current message of the reader into an existing holder, without allocating.
+   */
+  public static boolean parseServerInfo(ProtocolReader serverInfo, Server server) {
+    try {
+      server.serverType = serverInfo.internToken(0);
+      server.serverID = serverInfo.intToken(1);
+      server.status = serverInfo.internToken(2);
+      server.currStartTime = serverInfo.intToken(3);
+      server.core = serverInfo.intToken(4);
+      server.memory = serverInfo.intToken(5);
+      server.disk = serverInfo.intToken(6);
+      server.waitingJobs = serverInfo.intToken(7);
+      server.runningJobs = serverInfo.intToken(8);
+      return true;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      System.out.println("ArrayIndexOutOfBoundsException ==> " + e.getMessage());
+    } catch (NumberFormatException e) {
+      System.out.println("NumberFormatException ==> " + e.getMessage());
+    }
+    return false;
+  }
 }
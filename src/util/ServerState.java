@@ -0,0 +1,941 @@
+package util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import util.enums.GETSMode;
+
+/**
+ * Client side shadow of the ds-server server states.
+ *
+ * <p>
+ * The model is seeded once from a 'GETS All' response and the ds-system.xml catalogue, and is then
+ * kept up to date from the events the client already sees (JOBN/SCHD/JCPL), so the scheduling
+ * algorithms can answer 'GETS Avail'/'GETS Capable' style queries without any round-trips.
+ * </p>
+ *
+ * <p>
+ * The live server fields are kept in a ServerTable, and the static capacities in parallel arrays,
+ * all indexed by row (catalogue order), so the selection loops scan primitive arrays. The Server
+ * objects handed out are per row views, refreshed from the table whenever one is returned.
+ * </p>
+ */
+public class ServerState {
+  public static final String INACTIVE = "inactive";
+  public static final String BOOTING = "booting";
+  public static final String IDLE = "idle";
+  public static final String ACTIVE = "active";
+  public static final String UNAVAILABLE = "unavailable";
+
+  // Per server jobs, which do not fit in the table, and the server's view
+  private static class Entry {
+    final int index;
+    final Server server;
+    final List<Job> running = new ArrayList<>();
+    final ArrayDeque<Job> waiting = new ArrayDeque<>();
+    long waitingRunTime = 0;
+    // A boot only the model started, with the status and start time from before it, undone when
+    // every job sent to the server since is unscheduled
+    boolean unconfirmedBoot = false;
+    byte statusBeforeBoot;
+    int startTimeBeforeBoot;
+
+    Entry(int index, Server server) {
+      this.index = index;
+      this.server = server;
+    }
+  }
+
+  private final ServerTable table;
+  // Capacities and boot up times from ds-system.xml, or the seeding record, by row
+  private final int[] maxCore;
+  private final int[] maxMemory;
+  private final int[] maxDisk;
+  private final int[] bootupTime;
+  private final ServerXML[] types;
+
+  private final List<Entry> entries = new ArrayList<>();
+  // Rows by their ds-system.xml capacity, smallest first, for FF/BF/WF
+  private final int[] capacityOrder;
+  private final Map<String, Entry> entryLookup = new HashMap<>();
+  // Lookup of the model's own Server objects without building a key
+  private final Map<Server, Entry> modelEntries = new IdentityHashMap<>();
+  private final Map<Integer, Entry> jobLocations = new HashMap<>();
+  private final List<Entry> bootingEntries = new ArrayList<>();
+  private final LinkedHashSet<Entry> waitingEntries = new LinkedHashSet<>();
+  private final CapacityIndex capacityIndex;
+  private RuntimePredictor runtimePredictor = null;
+  private int currentTime = 0;
+
+  /**
+   * Seed the model from a 'GETS All' response. Server capacities and boot up times are taken
+   * from the ds-system.xml catalogue when available, otherwise from the record itself.
+   */
+  public ServerState(List<Server> allServers, List<ServerXML> catalogue) {
+    Map<String, ServerXML> catalogueTypes = new HashMap<>();
+    if (catalogue != null) {
+      for (ServerXML type : catalogue) {
+        catalogueTypes.put(type.serverType, type);
+      }
+    }
+
+    int numOfServers = allServers.size();
+    table = new ServerTable(catalogue, numOfServers);
+    maxCore = new int[numOfServers];
+    maxMemory = new int[numOfServers];
+    maxDisk = new int[numOfServers];
+    bootupTime = new int[numOfServers];
+    types = new ServerXML[numOfServers];
+
+    for (Server record : allServers) {
+      int row = table.add(record);
+      ServerXML type = catalogueTypes.get(record.serverType);
+      types[row] = type;
+      maxCore[row] = (type != null) ? type.cores : record.core;
+      maxMemory[row] = (type != null) ? type.memory : record.memory;
+      maxDisk[row] = (type != null) ? type.disk : record.disk;
+      bootupTime[row] = (type != null) ? type.bootupTime : 0;
+
+      Entry entry = new Entry(row, new Server());
+      table.toServer(row, entry.server);
+      entries.add(entry);
+      entryLookup.put(key(record.serverType, record.serverID), entry);
+      modelEntries.put(entry.server, entry);
+    }
+
+    // Static capacity order: cores, then memory, then disk, ties kept in catalogue order
+    Integer[] order = new Integer[numOfServers];
+    for (int row = 0; row < numOfServers; row++) {
+      order[row] = row;
+    }
+    Arrays.sort(order, (a, b) -> (maxCore[a] != maxCore[b])
+        ? Integer.compare(maxCore[a], maxCore[b])
+        : (maxMemory[a] != maxMemory[b]) ? Integer.compare(maxMemory[a], maxMemory[b])
+        : Integer.compare(maxDisk[a], maxDisk[b]));
+    capacityOrder = new int[numOfServers];
+    for (int i = 0; i < numOfServers; i++) {
+      capacityOrder[i] = order[i];
+    }
+
+    capacityIndex = new CapacityIndex(numOfServers);
+    for (int row = 0; row < numOfServers; row++) {
+      capacityIndex.add(row, table.core[row], table.memory[row]);
+    }
+  }
+
+  /**
+   * Use learned run times instead of the estimates for the jobs scheduled from now on.
+   */
+  public void setRuntimePredictor(RuntimePredictor runtimePredictor) {
+    this.runtimePredictor = runtimePredictor;
+  }
+
+  // ###################
+  // ## Model Queries ##
+  // ###################
+
+  public int predictRunTime(Job job) {
+    return (runtimePredictor == null) ? job.estRunTime : runtimePredictor.predict(job);
+  }
+
+  /**
+   * Local equivalent of 'GETS mode core memory disk' without allocating: the rows of the matching
+   * servers, in catalogue order as ds-server returns them, are written to rows, which must hold
+   * size() entries. Returns the number of matching servers.
+   */
+  public int getServerRows(GETSMode mode, int reqCore, int reqMemory, int reqDisk, int[] rows) {
+    int count = 0;
+    for (int row = 0; row < table.size; row++) {
+      if (mode == GETSMode.All || matchesAt(row, mode, reqCore, reqMemory, reqDisk)) {
+        rows[count++] = row;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Closest fit selection on the capacity index:
+   * 1. The available server with the smallest positive core fitness value (available cores -
+   *    required cores), using the memory fitness value as a tiebreaker.
+   * 2. If no server is available, the capable server with the smallest positive core fitness.
+   * 3. Otherwise the capable server with the closest negative core fitness value to 0.
+   */
+  public Server closestFit(int reqCore, int reqMemory, int reqDisk) {
+    int available = bestAvailable(reqCore, reqMemory, reqDisk);
+    if (available >= 0) {
+      return getServerAt(available);
+    }
+
+    int start = capacityIndex.ceiling(reqCore);
+    for (int pos = start; pos < capacityIndex.size(); pos++) {
+      int row = capacityIndex.serverAt(pos);
+      if (matchesAt(row, GETSMode.Capable, reqCore, reqMemory, reqDisk)) {
+        return getServerAt(row);
+      }
+    }
+
+    // Walk down to the closest negative fitness value, then to its smallest memory fitness
+    int backup = -1;
+    for (int pos = start - 1; pos >= 0; pos--) {
+      if (backup >= 0 && capacityIndex.coreAt(pos) != table.core[backup]) {
+        break;
+      }
+      int row = capacityIndex.serverAt(pos);
+      if (matchesAt(row, GETSMode.Capable, reqCore, reqMemory, reqDisk)) {
+        backup = row;
+      }
+    }
+    return backup < 0 ? null : getServerAt(backup);
+  }
+
+  /**
+   * First-Fit: the first available server in static capacity order (smallest ds-system.xml
+   * capacity first). If none is available, the first capable server in that order.
+   */
+  public Server firstFit(int reqCore, int reqMemory, int reqDisk) {
+    int capable = -1;
+    for (int row : capacityOrder) {
+      if (matchesAt(row, GETSMode.Avail, reqCore, reqMemory, reqDisk)) {
+        return getServerAt(row);
+      }
+      if (capable < 0 && matchesAt(row, GETSMode.Capable, reqCore, reqMemory, reqDisk)) {
+        capable = row;
+      }
+    }
+    return capable < 0 ? null : getServerAt(capable);
+  }
+
+  /**
+   * Best-Fit: the available server with the smallest core fitness value, using the memory fitness
+   * value as a tiebreaker. If none is available, the smallest capable server by static capacity,
+   * preferring one that is already booted.
+   */
+  public Server bestFit(int reqCore, int reqMemory, int reqDisk) {
+    int available = bestAvailable(reqCore, reqMemory, reqDisk);
+    if (available >= 0) {
+      return getServerAt(available);
+    }
+    return capableByCapacity(reqCore, reqMemory, reqDisk, false);
+  }
+
+  /**
+   * Worst-Fit: the available server with the largest core fitness value, using the memory fitness
+   * value as a tiebreaker. If none is available, the largest capable server by static capacity,
+   * preferring one that is already booted.
+   */
+  public Server worstFit(int reqCore, int reqMemory, int reqDisk) {
+    int start = capacityIndex.ceiling(reqCore);
+
+    // Walk the index down from the most available cores and memory
+    for (int pos = capacityIndex.size() - 1; pos >= start; pos--) {
+      int row = capacityIndex.serverAt(pos);
+      if (capacityIndex.memoryAt(pos) >= reqMemory
+          && matchesAt(row, GETSMode.Avail, reqCore, reqMemory, reqDisk)) {
+        return getServerAt(row);
+      }
+    }
+    return capableByCapacity(reqCore, reqMemory, reqDisk, true);
+  }
+
+  // Row of the closest available fit, -1 if no server is available
+  private int bestAvailable(int reqCore, int reqMemory, int reqDisk) {
+    // Index order is core then memory fitness, so the first available match is the closest fit
+    for (int pos = capacityIndex.ceiling(reqCore); pos < capacityIndex.size(); pos++) {
+      int row = capacityIndex.serverAt(pos);
+      if (capacityIndex.memoryAt(pos) >= reqMemory
+          && matchesAt(row, GETSMode.Avail, reqCore, reqMemory, reqDisk)) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  private Server capableByCapacity(int reqCore, int reqMemory, int reqDisk, boolean largest) {
+    int size = capacityOrder.length;
+    int capable = -1;
+    for (int i = 0; i < size && capable < 0; i++) {
+      int row = capacityOrder[largest ? size - 1 - i : i];
+      if (matchesAt(row, GETSMode.Capable, reqCore, reqMemory, reqDisk)) {
+        capable = row;
+      }
+    }
+    if (capable < 0) {
+      return null;
+    }
+
+    // Among servers of that capacity prefer a booted one, in catalogue order
+    int chosen = -1;
+    for (int row : capacityOrder) {
+      if (maxCore[row] != maxCore[capable] || maxMemory[row] != maxMemory[capable]
+          || maxDisk[row] != maxDisk[capable]
+          || !matchesAt(row, GETSMode.Capable, reqCore, reqMemory, reqDisk)) {
+        continue;
+      }
+      if (table.status[row] != ServerTable.INACTIVE) {
+        return getServerAt(row);
+      }
+      if (chosen < 0) {
+        chosen = row;
+      }
+    }
+    return getServerAt(chosen);
+  }
+
+  /**
+   * Local estimate of how long a job would wait on a server before it starts: the remaining boot
+   * up time, plus the predicted run times of the jobs already waiting (what EJWT reports, when
+   * there is no RuntimePredictor), plus the earliest running job completion when the job cannot
+   * start straight away.
+   */
+  public int estimateWaitTime(Server server, Job job) {
+    Entry entry = entryOf(server);
+    return (entry == null) ? Integer.MAX_VALUE : estimateWaitTimeAt(entry.index, job);
+  }
+
+  public int estimateWaitTimeAt(int row, Job job) {
+    Entry entry = entries.get(row);
+    int waitTime = 0;
+    if (table.status[row] == ServerTable.INACTIVE) {
+      waitTime += bootupTime[row];
+    } else if (table.status[row] == ServerTable.BOOTING) {
+      waitTime += Math.max(0, table.startTime[row] - currentTime);
+    }
+
+    waitTime += entry.waitingRunTime;
+    if (!entry.waiting.isEmpty() || !fits(row, job)) {
+      waitTime += earliestCompletion(entry);
+    }
+    return waitTime;
+  }
+
+  /**
+   * Local estimate of how much longer a job already waiting in a server's queue will wait: the
+   * estimated run times of the jobs ahead of it plus the earliest running job completion. -1 if
+   * the job is not waiting.
+   */
+  public int estimateQueuedWait(int jobID) {
+    Entry entry = jobLocations.get(jobID);
+    if (entry == null) {
+      return -1;
+    }
+
+    int waitTime = 0;
+    for (Job waitingJob : entry.waiting) {
+      if (waitingJob.jobID == jobID) {
+        int bootWait = Math.max(0, table.startTime[entry.index] - currentTime);
+        return Math.max(bootWait, waitTime + earliestCompletion(entry));
+      }
+      waitTime += waitingJob.predictedRunTime;
+    }
+    return -1;
+  }
+
+  private int earliestCompletion(Entry entry) {
+    int earliestCompletion = Integer.MAX_VALUE;
+    for (Job runningJob : entry.running) {
+      earliestCompletion = Math.min(earliestCompletion,
+          Math.max(0, runningJob.startTime + runningJob.predictedRunTime - currentTime));
+    }
+    return (earliestCompletion == Integer.MAX_VALUE) ? 0 : earliestCompletion;
+  }
+
+  /**
+   * Migration source for a server with spare resources: the server with the most estimated run
+   * time waiting, that has at least one waiting job which could start on the target right away.
+   * Null if there is none.
+   */
+  public Server findMigrationSource(Server target) {
+    Entry targetEntry = entryOf(target);
+    if (targetEntry == null || !targetEntry.waiting.isEmpty()
+        || table.status[targetEntry.index] == ServerTable.UNAVAILABLE) {
+      return null;
+    }
+
+    Entry source = null;
+    for (Entry entry : waitingEntries) {
+      if (entry == targetEntry
+          || (source != null && entry.waitingRunTime <= source.waitingRunTime)) {
+        continue;
+      }
+      for (Job job : entry.waiting) {
+        if (fits(targetEntry.index, job)) {
+          source = entry;
+          break;
+        }
+      }
+    }
+    return source == null ? null : getServerAt(source.index);
+  }
+
+  /**
+   * Model time by which every job currently on the row's server is expected to have completed,
+   * i.e. how long the server is rented for anyway. The current time for an idle server.
+   */
+  public int estimateCompletionTimeAt(int row) {
+    Entry entry = entries.get(row);
+    int completionTime = Math.max(currentTime, table.startTime[row]);
+    for (Job runningJob : entry.running) {
+      completionTime =
+          Math.max(completionTime, runningJob.startTime + runningJob.predictedRunTime);
+    }
+    return completionTime + (int) entry.waitingRunTime;
+  }
+
+  /**
+   * The model's waiting jobs of a server, in queue order. The jobs must not be modified.
+   */
+  public List<Job> getWaitingJobs(Server server) {
+    Entry entry = entryOf(server);
+    return entry == null ? new ArrayList<>() : new ArrayList<>(entry.waiting);
+  }
+
+  public ServerXML getServerTypeAt(int row) {
+    return types[row];
+  }
+
+  public Server getServer(String serverType, int serverID) {
+    Entry entry = entryLookup.get(key(serverType, serverID));
+    return entry == null ? null : getServerAt(entry.index);
+  }
+
+  // Row of a server, or -1 if it is not modelled
+  public int getServerRow(String serverType, int serverID) {
+    Entry entry = entryLookup.get(key(serverType, serverID));
+    return entry == null ? -1 : entry.index;
+  }
+
+  /**
+   * The view of a row, refreshed from the table. It stays the same object for the row.
+   */
+  public Server getServerAt(int row) {
+    return table.toServer(row, entries.get(row).server);
+  }
+
+  /**
+   * The live server fields by row, for scans without Server objects. Must not be modified.
+   */
+  public ServerTable getTable() {
+    return table;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public int getWaitingServerCount() {
+    return waitingEntries.size();
+  }
+
+  public int getCurrentTime() {
+    return currentTime;
+  }
+
+  // Whether a row is part of the local 'GETS mode core memory disk' response
+  public boolean matchesAt(int row, GETSMode mode, int reqCore, int reqMemory, int reqDisk) {
+    if (table.status[row] == ServerTable.UNAVAILABLE || maxCore[row] < reqCore
+        || maxMemory[row] < reqMemory || maxDisk[row] < reqDisk) {
+      return false;
+    }
+    if (mode == GETSMode.Avail) {
+      return table.waitingJobs[row] == 0 && table.core[row] >= reqCore
+          && table.memory[row] >= reqMemory && table.disk[row] >= reqDisk;
+    }
+    return true;
+  }
+
+  // ###################
+  // ## Model Updates ##
+  // ###################
+
+  /**
+   * Move the model clock forward, finishing the boot of any server whose boot up time elapsed.
+   */
+  public void advanceTime(int time) {
+    if (time <= currentTime) {
+      return;
+    }
+    currentTime = time;
+
+    for (int i = bootingEntries.size() - 1; i >= 0; i--) {
+      Entry entry = bootingEntries.get(i);
+      if (table.startTime[entry.index] <= currentTime) {
+        bootingEntries.remove(i);
+        entry.unconfirmedBoot = false;
+        updateStatus(entry);
+      }
+    }
+  }
+
+  /**
+   * Record a 'SCHD jobID serverType serverID' decision. The model keeps its own copy of the job.
+   */
+  public void scheduleJob(Job scheduledJob, String serverType, int serverID) {
+    Job job = new Job(scheduledJob.jobID, scheduledJob.submitTime, scheduledJob.estRunTime,
+        scheduledJob.reqCore, scheduledJob.reqMemory, scheduledJob.reqDisk);
+    job.predictedRunTime = predictRunTime(job);
+    Entry entry = entryLookup.get(key(serverType, serverID));
+    if (entry == null) {
+      System.out.println("Unknown server ==> " + serverType + " " + serverID);
+      return;
+    }
+
+    int row = entry.index;
+    if (table.status[row] == ServerTable.INACTIVE) {
+      // Scheduling to an inactive server triggers its boot up
+      entry.unconfirmedBoot = true;
+      entry.statusBeforeBoot = table.status[row];
+      entry.startTimeBeforeBoot = table.startTime[row];
+      table.status[row] = ServerTable.BOOTING;
+      table.startTime[row] = currentTime + bootupTime[row];
+      bootingEntries.add(entry);
+    }
+
+    jobLocations.put(job.jobID, entry);
+    if (entry.waiting.isEmpty() && fits(row, job)) {
+      startJob(entry, job);
+    } else {
+      addWaiting(entry, job);
+    }
+    updateStatus(entry);
+  }
+
+  /**
+   * Record a 'MIGJ jobID srcServerType srcServerID tgtServerType tgtServerID' of a waiting job.
+   * Jobs waiting behind it on the source start if they now fit.
+   */
+  public void migrateJob(int jobID, String serverType, int serverID) {
+    Entry source = jobLocations.get(jobID);
+    if (source == null) {
+      return;
+    }
+
+    Job migrated = null;
+    for (Job job : source.waiting) {
+      if (job.jobID == jobID) {
+        migrated = job;
+        break;
+      }
+    }
+    if (migrated == null) {
+      return;
+    }
+
+    source.waiting.remove(migrated);
+    source.waitingRunTime -= migrated.predictedRunTime;
+    table.waitingJobs[source.index]--;
+    jobLocations.remove(jobID);
+    startWaitingJobs(source);
+    updateStatus(source);
+
+    scheduleJob(migrated, serverType, serverID);
+  }
+
+  /**
+   * Record a 'JCPL endTime jobID serverType serverID' event. Waiting jobs on the server are
+   * started in submission order while they fit the freed resources. Returns the model's copy of
+   * the completed job, or null if it was not running.
+   */
+  public Job completeJob(int jobID) {
+    Entry entry = jobLocations.remove(jobID);
+    if (entry == null) {
+      return null;
+    }
+
+    Job completed = null;
+    int row = entry.index;
+    for (int i = 0; i < entry.running.size(); i++) {
+      Job job = entry.running.get(i);
+      if (job.jobID == jobID) {
+        entry.running.remove(i);
+        table.core[row] += job.reqCore;
+        table.memory[row] += job.reqMemory;
+        table.disk[row] += job.reqDisk;
+        table.runningJobs[row]--;
+        capacityIndex.update(row, table.core[row], table.memory[row]);
+        completed = job;
+        break;
+      }
+    }
+
+    startWaitingJobs(entry);
+    updateStatus(entry);
+    return completed;
+  }
+
+  /**
+   * Undo a SCHD that ds-server rejected: the job is removed from the server. A boot the SCHD
+   * started is undone too once the server has no job left. Returns false if the model does not
+   * have the job.
+   */
+  public boolean unscheduleJob(int jobID) {
+    Entry entry = jobLocations.get(jobID);
+    if (entry == null) {
+      return false;
+    }
+    boolean waiting = false;
+    for (Job job : entry.waiting) {
+      if (job.jobID == jobID) {
+        entry.waiting.remove(job);
+        entry.waitingRunTime -= job.predictedRunTime;
+        table.waitingJobs[entry.index]--;
+        jobLocations.remove(jobID);
+        startWaitingJobs(entry);
+        updateStatus(entry);
+        waiting = true;
+        break;
+      }
+    }
+    if (!waiting) {
+      completeJob(jobID);
+    }
+
+    if (entry.unconfirmedBoot && entry.running.isEmpty() && entry.waiting.isEmpty()) {
+      // ds-server never booted the server
+      int row = entry.index;
+      table.status[row] = entry.statusBeforeBoot;
+      table.startTime[row] = entry.startTimeBeforeBoot;
+      bootingEntries.remove(entry);
+      entry.unconfirmedBoot = false;
+    }
+    return true;
+  }
+
+  /**
+   * Record a 'RESF serverType serverID time'. ds-server killed the server's jobs and resubmits
+   * them as JOBP, so they are dropped from the model, and the server is left out of every query
+   * until its RESR. Returns the dropped jobs.
+   */
+  public List<Job> failServer(int row) {
+    Entry entry = entries.get(row);
+    List<Job> killed = new ArrayList<>(entry.running);
+    killed.addAll(entry.waiting);
+    for (Job job : entry.running) {
+      jobLocations.remove(job.jobID);
+    }
+    for (Job job : entry.waiting) {
+      jobLocations.remove(job.jobID);
+    }
+    entry.running.clear();
+    entry.waiting.clear();
+    entry.waitingRunTime = 0;
+    entry.unconfirmedBoot = false;
+    bootingEntries.remove(entry);
+    waitingEntries.remove(entry);
+
+    table.status[row] = ServerTable.UNAVAILABLE;
+    table.startTime[row] = -1;
+    table.core[row] = maxCore[row];
+    table.memory[row] = maxMemory[row];
+    table.disk[row] = maxDisk[row];
+    table.waitingJobs[row] = 0;
+    table.runningJobs[row] = 0;
+    capacityIndex.update(row, table.core[row], table.memory[row]);
+    return killed;
+  }
+
+  /**
+   * Record a 'RESR serverType serverID time': the server is inactive again, and boots on its next
+   * job.
+   */
+  public void recoverServer(int row) {
+    if (table.status[row] == ServerTable.UNAVAILABLE) {
+      table.status[row] = ServerTable.INACTIVE;
+      table.startTime[row] = -1;
+    }
+  }
+
+  /**
+   * Record a 'TERM serverType serverID' of a server without jobs, which becomes inactive and boots
+   * again on its next job. Returns false, leaving the model as it is, if the server has jobs.
+   */
+  public boolean terminateServer(int row) {
+    Entry entry = entries.get(row);
+    if (!entry.running.isEmpty() || !entry.waiting.isEmpty()) {
+      return false;
+    }
+    table.status[row] = ServerTable.INACTIVE;
+    table.startTime[row] = -1;
+    entry.unconfirmedBoot = false;
+    bootingEntries.remove(entry);
+    return true;
+  }
+
+  private void addWaiting(Entry entry, Job job) {
+    job.jobState = Job.WAITING;
+    entry.waiting.add(job);
+    entry.waitingRunTime += job.predictedRunTime;
+    table.waitingJobs[entry.index]++;
+    waitingEntries.add(entry);
+  }
+
+  // Start waiting jobs in submission order while they fit
+  private void startWaitingJobs(Entry entry) {
+    while (!entry.waiting.isEmpty() && fits(entry.index, entry.waiting.peek())) {
+      Job job = entry.waiting.poll();
+      entry.waitingRunTime -= job.predictedRunTime;
+      table.waitingJobs[entry.index]--;
+      startJob(entry, job);
+    }
+    if (entry.waiting.isEmpty()) {
+      waitingEntries.remove(entry);
+    }
+  }
+
+  private void startJob(Entry entry, Job job) {
+    int row = entry.index;
+    job.jobState = Job.RUNNING;
+    job.startTime = Math.max(currentTime, table.startTime[row]);
+    entry.running.add(job);
+    table.core[row] -= job.reqCore;
+    table.memory[row] -= job.reqMemory;
+    table.disk[row] -= job.reqDisk;
+    table.runningJobs[row]++;
+    capacityIndex.update(row, table.core[row], table.memory[row]);
+  }
+
+  private void updateStatus(Entry entry) {
+    int row = entry.index;
+    byte status = table.status[row];
+    if (status == ServerTable.INACTIVE || status == ServerTable.UNAVAILABLE) {
+      return;
+    }
+    if (status == ServerTable.BOOTING && table.startTime[row] > currentTime) {
+      return;
+    }
+    table.status[row] = (table.runningJobs[row] + table.waitingJobs[row] > 0)
+        ? ServerTable.ACTIVE : ServerTable.IDLE;
+  }
+
+  private boolean fits(int row, Job job) {
+    return table.core[row] >= job.reqCore && table.memory[row] >= job.reqMemory
+        && table.disk[row] >= job.reqDisk;
+  }
+
+  // ###############
+  // ## Snapshots ##
+  // ###############
+
+  /**
+   * Write the whole model, every server with its capacities, state and jobs, for readSnapshot().
+   * The runtime predictor is not part of it.
+   */
+  public void writeSnapshot(DataOutputStream out) throws IOException {
+    out.writeInt(currentTime);
+    out.writeInt(table.size);
+    for (int row = 0; row < table.size; row++) {
+      Entry entry = entries.get(row);
+      out.writeUTF(table.typeName(table.typeID[row]));
+      out.writeInt(table.serverID[row]);
+      out.writeByte(table.status[row]);
+      out.writeInt(table.startTime[row]);
+      out.writeInt(maxCore[row]);
+      out.writeInt(maxMemory[row]);
+      out.writeInt(maxDisk[row]);
+      out.writeInt(entry.running.size());
+      for (Job job : entry.running) {
+        writeJob(out, job);
+      }
+      out.writeInt(entry.waiting.size());
+      for (Job job : entry.waiting) {
+        writeJob(out, job);
+      }
+    }
+  }
+
+  /**
+   * Rebuild a model written by writeSnapshot(), with boot up times from the catalogue.
+   */
+  public static ServerState readSnapshot(DataInputStream in, List<ServerXML> catalogue)
+      throws IOException {
+    int time = in.readInt();
+    int numOfServers = in.readInt();
+    List<Server> records = new ArrayList<>(numOfServers);
+    List<List<Job>> running = new ArrayList<>(numOfServers);
+    List<List<Job>> waiting = new ArrayList<>(numOfServers);
+    for (int row = 0; row < numOfServers; row++) {
+      String serverType = in.readUTF();
+      int serverID = in.readInt();
+      String status = ServerTable.statusName(in.readByte());
+      int startTime = in.readInt();
+      // Seeded with its full capacity, the jobs are taken off below
+      records.add(new Server(serverType, serverID, status, startTime, in.readInt(), in.readInt(),
+          in.readInt(), 0, 0));
+      running.add(readJobs(in));
+      waiting.add(readJobs(in));
+    }
+
+    ServerState state = new ServerState(records, catalogue);
+    state.currentTime = time;
+    for (int row = 0; row < numOfServers; row++) {
+      Entry entry = state.entries.get(row);
+      for (Job job : running.get(row)) {
+        int startTime = job.startTime;
+        state.startJob(entry, job);
+        job.startTime = startTime;
+        state.jobLocations.put(job.jobID, entry);
+      }
+      for (Job job : waiting.get(row)) {
+        state.addWaiting(entry, job);
+        state.jobLocations.put(job.jobID, entry);
+      }
+      if (state.table.status[row] == ServerTable.BOOTING) {
+        state.bootingEntries.add(entry);
+      }
+    }
+    return state;
+  }
+
+  private static void writeJob(DataOutputStream out, Job job) throws IOException {
+    out.writeInt(job.jobID);
+    out.writeInt(job.submitTime);
+    out.writeInt(job.estRunTime);
+    out.writeInt(job.reqCore);
+    out.writeInt(job.reqMemory);
+    out.writeInt(job.reqDisk);
+    out.writeInt(job.startTime);
+    out.writeInt(job.predictedRunTime);
+  }
+
+  private static List<Job> readJobs(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<Job> jobs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Job job = new Job(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+          in.readInt());
+      job.startTime = in.readInt();
+      job.predictedRunTime = in.readInt();
+      jobs.add(job);
+    }
+    return jobs;
+  }
+
+  // ##################
+  // ## Verification ##
+  // ##################
+
+  /**
+   * Compare the model against a real 'GETS All' response, report every field that drifted and
+   * resync the fields to the server's view. The rows of the drifted servers are added to
+   * driftedRows, so their jobs can be resynced with resyncJobs(). Modelled servers missing from
+   * the response are reported too. Returns the number of servers that drifted.
+   */
+  public int verify(List<Server> actualServers, List<Integer> driftedRows) {
+    int drifted = 0;
+    // Every boot is as ds-server has it after the resync
+    for (Entry entry : entries) {
+      entry.unconfirmedBoot = false;
+    }
+    boolean[] listed = new boolean[entries.size()];
+    for (Server actual : actualServers) {
+      Entry entry = entryLookup.get(key(actual.serverType, actual.serverID));
+      if (entry == null) {
+        System.out.println("DRIFT " + actual.serverType + " " + actual.serverID + " not modelled");
+        drifted++;
+        continue;
+      }
+
+      int row = entry.index;
+      listed[row] = true;
+      byte actualStatus = ServerTable.statusOf(actual.status);
+      StringBuilder drift = new StringBuilder();
+      if (table.status[row] != actualStatus) {
+        drift.append(" status=").append(ServerTable.statusName(table.status[row])).append('/')
+            .append(actual.status);
+      }
+      appendDrift(drift, "core", table.core[row], actual.core);
+      appendDrift(drift, "memory", table.memory[row], actual.memory);
+      appendDrift(drift, "disk", table.disk[row], actual.disk);
+      appendDrift(drift, "waiting", table.waitingJobs[row], actual.waitingJobs);
+      appendDrift(drift, "running", table.runningJobs[row], actual.runningJobs);
+
+      if (drift.length() > 0) {
+        drifted++;
+        driftedRows.add(row);
+        System.out.println("DRIFT " + actual.serverType + " " + actual.serverID + drift);
+        table.status[row] = actualStatus;
+        table.startTime[row] = actual.currStartTime;
+        table.core[row] = actual.core;
+        table.memory[row] = actual.memory;
+        table.disk[row] = actual.disk;
+        table.waitingJobs[row] = actual.waitingJobs;
+        table.runningJobs[row] = actual.runningJobs;
+        capacityIndex.update(row, table.core[row], table.memory[row]);
+      }
+    }
+
+    for (int row = 0; row < listed.length; row++) {
+      if (!listed[row]) {
+        drifted++;
+        System.out.println("DRIFT " + table.typeName(table.typeID[row]) + " " + table.serverID[row]
+            + " missing from GETS All");
+      }
+    }
+    return drifted;
+  }
+
+  /**
+   * Replace the jobs of a drifted row with those 'LSTJ serverType serverID' listed, after verify()
+   * resynced its fields, so later estimates start from ds-server's queue rather than the model's.
+   */
+  public void resyncJobs(int row, List<Job> listedJobs) {
+    Entry entry = entries.get(row);
+    for (Job job : entry.running) {
+      jobLocations.remove(job.jobID, entry);
+    }
+    for (Job job : entry.waiting) {
+      jobLocations.remove(job.jobID, entry);
+    }
+    entry.running.clear();
+    entry.waiting.clear();
+    entry.waitingRunTime = 0;
+
+    for (Job job : listedJobs) {
+      // A job the model has on another server is taken off that one
+      unscheduleJob(job.jobID);
+      job.predictedRunTime = predictRunTime(job);
+      if (job.jobState == Job.RUNNING) {
+        entry.running.add(job);
+      } else {
+        job.jobState = Job.WAITING;
+        entry.waiting.add(job);
+        entry.waitingRunTime += job.predictedRunTime;
+      }
+      jobLocations.put(job.jobID, entry);
+    }
+
+    table.waitingJobs[row] = entry.waiting.size();
+    table.runningJobs[row] = entry.running.size();
+    if (entry.waiting.isEmpty()) {
+      waitingEntries.remove(entry);
+    } else {
+      waitingEntries.add(entry);
+    }
+    bootingEntries.remove(entry);
+    if (table.status[row] == ServerTable.BOOTING) {
+      bootingEntries.add(entry);
+    }
+  }
+
+  private static void appendDrift(StringBuilder drift, String field, int model, int actual) {
+    if (model != actual) {
+      drift.append(' ').append(field).append('=').append(model).append('/').append(actual);
+    }
+  }
+
+  private Entry entryOf(Server server) {
+    Entry entry = modelEntries.get(server);
+    return (entry != null) ? entry : entryLookup.get(key(server.serverType, server.serverID));
+  }
+
+  private static String key(String serverType, int serverID) {
+    return serverType + " " + serverID;
+  }
+}
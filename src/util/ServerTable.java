@@ -0,0 +1,143 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server records as a struct of arrays: one primitive array per GETS field, indexed by row.
+ *
+ * <p>
+ * Server types are interned to IDs in ds-system.xml catalogue order, and states to a status byte,
+ * so a scan over the table compares ints and bytes in contiguous arrays instead of following a
+ * Server object and its Strings per record.
+ * </p>
+ */
+public class ServerTable {
+  public static final byte INACTIVE = 0;
+  public static final byte BOOTING = 1;
+  public static final byte IDLE = 2;
+  public static final byte ACTIVE = 3;
+  public static final byte UNAVAILABLE = 4;
+
+  private static final String[] STATUS_NAMES = {ServerState.INACTIVE, ServerState.BOOTING,
+      ServerState.IDLE, ServerState.ACTIVE, ServerState.UNAVAILABLE};
+
+  // Catalogue types first, in catalogue order, then types only seen in records
+  private final List<String> typeNames = new ArrayList<>();
+  private final Map<String, Integer> typeIDs = new HashMap<>();
+
+  public int size = 0;
+  public int[] typeID;
+  public int[] serverID;
+  public byte[] status;
+  public int[] startTime;
+  public int[] core;
+  public int[] memory;
+  public int[] disk;
+  public int[] waitingJobs;
+  public int[] runningJobs;
+
+  public ServerTable(List<ServerXML> catalogue, int capacity) {
+    if (catalogue != null) {
+      for (ServerXML type : catalogue) {
+        typeIDOf(type.serverType);
+      }
+    }
+    capacity = Math.max(capacity, 1);
+    typeID = new int[capacity];
+    serverID = new int[capacity];
+    status = new byte[capacity];
+    startTime = new int[capacity];
+    core = new int[capacity];
+    memory = new int[capacity];
+    disk = new int[capacity];
+    waitingJobs = new int[capacity];
+    runningJobs = new int[capacity];
+  }
+
+  /**
+   * Append a row and return its index.
+   */
+  public int add(String serverType, int serverID, String status, int startTime, int core,
+      int memory, int disk, int waitingJobs, int runningJobs) {
+    if (size == typeID.length) {
+      grow();
+    }
+    int row = size++;
+    this.typeID[row] = typeIDOf(serverType);
+    this.serverID[row] = serverID;
+    this.status[row] = statusOf(status);
+    this.startTime[row] = startTime;
+    this.core[row] = core;
+    this.memory[row] = memory;
+    this.disk[row] = disk;
+    this.waitingJobs[row] = waitingJobs;
+    this.runningJobs[row] = runningJobs;
+    return row;
+  }
+
+  public int add(Server server) {
+    return add(server.serverType, server.serverID, server.status, server.currStartTime,
+        server.core, server.memory, server.disk, server.waitingJobs, server.runningJobs);
+  }
+
+  /**
+   * Copy a row into a Server holder, e.g. to hand it to code that works on Server objects.
+   */
+  public Server toServer(int row, Server server) {
+    server.serverType = typeNames.get(typeID[row]);
+    server.serverID = serverID[row];
+    server.status = STATUS_NAMES[status[row]];
+    server.currStartTime = startTime[row];
+    server.core = core[row];
+    server.memory = memory[row];
+    server.disk = disk[row];
+    server.waitingJobs = waitingJobs[row];
+    server.runningJobs = runningJobs[row];
+    return server;
+  }
+
+  public int typeIDOf(String serverType) {
+    Integer id = typeIDs.get(serverType);
+    if (id == null) {
+      id = typeNames.size();
+      typeNames.add(serverType);
+      typeIDs.put(serverType, id);
+    }
+    return id;
+  }
+
+  public String typeName(int typeID) {
+    return typeNames.get(typeID);
+  }
+
+  // Unknown states are treated as unavailable
+  public static byte statusOf(String status) {
+    for (byte i = 0; i < STATUS_NAMES.length; i++) {
+      if (STATUS_NAMES[i].equals(status)) {
+        return i;
+      }
+    }
+    return UNAVAILABLE;
+  }
+
+  public static String statusName(byte status) {
+    return STATUS_NAMES[status];
+  }
+
+  private void grow() {
+    int capacity = typeID.length * 2;
+    typeID = Arrays.copyOf(typeID, capacity);
+    serverID = Arrays.copyOf(serverID, capacity);
+    status = Arrays.copyOf(status, capacity);
+    startTime = Arrays.copyOf(startTime, capacity);
+    core = Arrays.copyOf(core, capacity);
+    memory = Arrays.copyOf(memory, capacity);
+    disk = Arrays.copyOf(disk, capacity);
+    waitingJobs = Arrays.copyOf(waitingJobs, capacity);
+    runningJobs = Arrays.copyOf(runningJobs, capacity);
+  }
+}
@@ -1,18 +1,30 @@
 package util;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.ArrayList;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.DocumentBuilder;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-import org.w3c.dom.Element;
+import java.util.zip.CRC32;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class ServerXML {
+    private static final int CACHE_MAGIC = 0x44534358; // "DSCX"
+    private static final int CACHE_VERSION = 1;
+
     String serverType;
     int limit;
     int bootupTime;
@@ -32,37 +44,174 @@ public class ServerXML {
         this.disk = disk;
     }
 
+    public String getServerType() {
+        return serverType;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getBootupTime() {
+        return bootupTime;
+    }
+
+    public float getHourlyRate() {
+        return hourlyRate;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public int getMemory() {
+        return memory;
+    }
+
+    public int getDisk() {
+        return disk;
+    }
+
+    /**
+     * Read the server catalogue of a ds-system.xml. The file is streamed, and reading stops at the
+     * end of the "servers" element, so any "jobs" that follow are never parsed. A file that cannot
+     * be read to the end of its catalogue yields an empty list rather than the servers before the
+     * error.
+     */
     public static List<ServerXML> parse(String xmlFilePath) {
         List<ServerXML> servers = new ArrayList<>();
 
-        try {
-            // Parse the XML file to a Document object
-            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            Document document = builder.parse(new File(xmlFilePath));
-
-            // Retrieve and store all "server" elements under "servers" element
-            Element serversElement =
-                    (Element) document.getDocumentElement().getElementsByTagName("servers").item(0);
-            NodeList serverNodes = serversElement.getElementsByTagName("server");
-
-            // Loop over server elements and extra server info
-            for (int i = 0; i < serverNodes.getLength(); i++) {
-                Element serverElement = (Element) serverNodes.item(i);
-                String serverType = serverElement.getAttribute("type");
-                int limit = Integer.parseInt(serverElement.getAttribute("limit"));
-                int bootupTime = Integer.parseInt(serverElement.getAttribute("bootupTime"));
-                Float hourlyRate = Float.parseFloat(serverElement.getAttribute("hourlyRate"));
-                int cores = Integer.parseInt(serverElement.getAttribute("cores"));
-                int memory = Integer.parseInt(serverElement.getAttribute("memory"));
-                int disk = Integer.parseInt(serverElement.getAttribute("disk"));
-
-                servers.add(new ServerXML(serverType, limit, bootupTime, hourlyRate, cores, memory,
-                        disk));
+        try (InputStream input = new BufferedInputStream(new FileInputStream(xmlFilePath))) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+            boolean inServers = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (name.equals("servers")) {
+                        inServers = true;
+                    } else if (inServers && name.equals("server")) {
+                        servers.add(new ServerXML(attribute(reader, "type"),
+                                Integer.parseInt(attribute(reader, "limit")),
+                                Integer.parseInt(attribute(reader, "bootupTime")),
+                                Float.parseFloat(attribute(reader, "hourlyRate")),
+                                Integer.parseInt(attribute(reader, "cores")),
+                                Integer.parseInt(attribute(reader, "memory")),
+                                Integer.parseInt(attribute(reader, "disk"))));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && reader.getLocalName().equals("servers")) {
+                    break;
+                }
             }
-        } catch (IOException | ParserConfigurationException | NumberFormatException
-                | SAXException e) {
-            e.printStackTrace();
+            reader.close();
+        } catch (IOException e) {
+            System.out.println("IOException ==> " + xmlFilePath + ": " + e.getMessage());
+            return new ArrayList<>();
+        } catch (XMLStreamException e) {
+            System.out.println("XMLStreamException ==> " + xmlFilePath + ": " + e.getMessage());
+            return new ArrayList<>();
+        } catch (NumberFormatException e) {
+            System.out.println("NumberFormatException ==> " + xmlFilePath + ": " + e.getMessage());
+            return new ArrayList<>();
+        }
+        return servers;
+    }
+
+    // An attribute of the current "server" element, which must be present
+    private static String attribute(XMLStreamReader reader, String name)
+            throws XMLStreamException {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) {
+            throw new XMLStreamException("server element without a \"" + name + "\" attribute",
+                    reader.getLocation());
+        }
+        return value;
+    }
+
+    /**
+     * parse() through an on-disk cache of parsed catalogues in cacheDir, keyed by the length and
+     * CRC-32 of the file's content. A hit reads a few hundred bytes instead of parsing XML; a
+     * changed file simply misses and is cached under its new hash. CRC-32 is computed natively, so
+     * unlike a cryptographic digest it costs next to nothing in a freshly started JVM.
+     */
+    public static List<ServerXML> parseCached(String xmlFilePath, String cacheDir) {
+        Path cachePath;
+        try {
+            cachePath = Paths.get(cacheDir, hashOf(xmlFilePath) + ".cat");
+        } catch (IOException e) {
+            System.out.println("IOException ==> " + e.getMessage());
+            return parse(xmlFilePath);
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(cachePath.toFile())))) {
+            return readCatalogue(in);
+        } catch (FileNotFoundException e) {
+            // Not cached yet
+        } catch (IOException e) {
+            System.out.println("IOException ==> " + cachePath + ": " + e.getMessage());
+        }
+
+        // A failed parse is empty, and never cached
+        List<ServerXML> servers = parse(xmlFilePath);
+        if (!servers.isEmpty()) {
+            writeCatalogue(servers, cachePath);
         }
         return servers;
     }
-}
\ No newline at end of file
+
+    private static List<ServerXML> readCatalogue(DataInputStream in) throws IOException {
+        if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+            throw new IOException("not a catalogue cache");
+        }
+        int count = in.readInt();
+        List<ServerXML> servers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            servers.add(new ServerXML(in.readUTF(), in.readInt(), in.readInt(), in.readFloat(),
+                    in.readInt(), in.readInt(), in.readInt()));
+        }
+        return servers;
+    }
+
+    // Written to a temporary file and moved into place, so concurrent runs never read half a file
+    private static void writeCatalogue(List<ServerXML> servers, Path cachePath) {
+        try {
+            Files.createDirectories(cachePath.getParent());
+            Path tempPath = Files.createTempFile(cachePath.getParent(), "catalogue", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempPath.toFile())))) {
+                out.writeInt(CACHE_MAGIC);
+                out.writeInt(CACHE_VERSION);
+                out.writeInt(servers.size());
+                for (ServerXML server : servers) {
+                    out.writeUTF(server.serverType);
+                    out.writeInt(server.limit);
+                    out.writeInt(server.bootupTime);
+                    out.writeFloat(server.hourlyRate);
+                    out.writeInt(server.cores);
+                    out.writeInt(server.memory);
+                    out.writeInt(server.disk);
+                }
+            }
+            Files.move(tempPath, cachePath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("IOException ==> " + e.getMessage());
+        }
+    }
+
+    private static String hashOf(String filePath) throws IOException {
+        CRC32 crc = new CRC32();
+        long length = 0;
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream input = new FileInputStream(filePath)) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+        }
+        return Long.toHexString(length) + "-" + Long.toHexString(crc.getValue());
+    }
+}
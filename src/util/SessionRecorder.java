@@ -0,0 +1,90 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import util.enums.Command;
+
+/**
+ * Binary recorder of the messages a ClientServerConnection sends and receives.
+ *
+ * <p>
+ * A recording starts with the MAGIC bytes and a version byte, followed by one record per message:
+ * a varint of (microseconds since the previous record << 1 | direction), a varint of the message
+ * length and the message's ASCII bytes without the newline. Direction 0 is sent by the client, 1
+ * received from ds-server. A typical record takes a few bytes more than the message itself.
+ * </p>
+ */
+public class SessionRecorder {
+  static final byte[] MAGIC = {'D', 'S', 'S', 'R'};
+  static final int VERSION = 1;
+  static final int SENT = 0;
+  static final int RECEIVED = 1;
+
+  private final OutputStream out;
+  private byte[] message = new byte[256];
+  private long lastNanos = System.nanoTime();
+  private long records = 0;
+
+  public SessionRecorder(String path) throws IOException {
+    out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16);
+    out.write(MAGIC);
+    out.write(VERSION);
+  }
+
+  public void recordSent(Command cmd, String params) {
+    byte[] cmdBytes = cmd.getBytes();
+    int length = cmdBytes.length + (params.isEmpty() ? 0 : params.length() + 1);
+    if (message.length < length) {
+      message = new byte[Math.max(length, message.length * 2)];
+    }
+    System.arraycopy(cmdBytes, 0, message, 0, cmdBytes.length);
+    if (!params.isEmpty()) {
+      message[cmdBytes.length] = ' ';
+      for (int i = 0; i < params.length(); i++) {
+        message[cmdBytes.length + 1 + i] = (byte) params.charAt(i);
+      }
+    }
+    record(SENT, message, length);
+  }
+
+  public void recordReceived(ProtocolReader in) {
+    record(RECEIVED, in.lineBuffer(), in.lineLength());
+  }
+
+  public long getRecords() {
+    return records;
+  }
+
+  public void close() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      System.out.println("IOException ==> " + e.getMessage());
+    }
+  }
+
+  private void record(int direction, byte[] bytes, int length) {
+    long now = System.nanoTime();
+    long deltaMicros = (now - lastNanos) / 1000;
+    // Only whole microseconds are consumed, so rounding does not drift over a long session
+    lastNanos += deltaMicros * 1000;
+    try {
+      writeVarLong(out, deltaMicros << 1 | direction);
+      writeVarLong(out, length);
+      out.write(bytes, 0, length);
+      records++;
+    } catch (IOException e) {
+      System.out.println("IOException ==> " + e.getMessage());
+    }
+  }
+
+  private static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+}
@@ -0,0 +1,221 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Replays a SessionRecorder recording to a client, without ds-server.
+ *
+ * <p>
+ * The client reads the recorded server messages from memory, and every message it sends is
+ * compared with the one recorded at the same position, so a replay both verifies that a client
+ * change still makes the same decisions and measures the client's processing time alone. The
+ * server messages are replayed as recorded, so once the client diverges (e.g. queries ds-server
+ * differently) the rest of the replay is meaningless; the report names the first difference.
+ * The user name in AUTH is not compared, so a recording replays on any machine.
+ * </p>
+ */
+public class SessionReplay {
+  private static final byte[] SCHD = "SCHD ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] AUTH = "AUTH".getBytes(StandardCharsets.US_ASCII);
+
+  private final byte[] serverStream;
+  private final byte[] sent;
+  private final int[] sentOffsets;
+  private final int sentCount;
+  private final long recordedNanos;
+
+  private int nextSent = 0;
+  private long matched = 0;
+  private long mismatched = 0;
+  private long schdMatched = 0;
+  private long schdMismatched = 0;
+  private String firstMismatch = null;
+
+  private SessionReplay(byte[] serverStream, byte[] sent, int[] sentOffsets, int sentCount,
+      long recordedNanos) {
+    this.serverStream = serverStream;
+    this.sent = sent;
+    this.sentOffsets = sentOffsets;
+    this.sentCount = sentCount;
+    this.recordedNanos = recordedNanos;
+  }
+
+  public static SessionReplay load(String path) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+      byte[] magic = new byte[SessionRecorder.MAGIC.length + 1];
+      if (in.readNBytes(magic, 0, magic.length) < magic.length
+          || !Arrays.equals(magic, 0, SessionRecorder.MAGIC.length, SessionRecorder.MAGIC, 0,
+              SessionRecorder.MAGIC.length)
+          || magic[SessionRecorder.MAGIC.length] != SessionRecorder.VERSION) {
+        throw new IOException(path + " is not a session recording");
+      }
+
+      ByteArrayOutputStream serverStream = new ByteArrayOutputStream();
+      ByteArrayOutputStream sent = new ByteArrayOutputStream();
+      // sentOffsets[i] is where sent message i starts, the last entry is the end of the last one
+      int[] sentOffsets = new int[1024];
+      int sentCount = 0;
+      long recordedMicros = 0;
+      byte[] message = new byte[256];
+
+      long header;
+      while ((header = readVarLong(in)) >= 0) {
+        int length = (int) readVarLong(in);
+        if (length < 0) {
+          throw new EOFException("Truncated session recording");
+        }
+        if (message.length < length) {
+          message = new byte[Math.max(length, message.length * 2)];
+        }
+        in.readFully(message, 0, length);
+        recordedMicros += header >>> 1;
+
+        if ((header & 1) == SessionRecorder.RECEIVED) {
+          serverStream.write(message, 0, length);
+          serverStream.write('\n');
+        } else {
+          sent.write(message, 0, length);
+          if (sentCount + 2 > sentOffsets.length) {
+            sentOffsets = Arrays.copyOf(sentOffsets, sentOffsets.length * 2);
+          }
+          sentOffsets[++sentCount] = sent.size();
+        }
+      }
+      return new SessionReplay(serverStream.toByteArray(), sent.toByteArray(), sentOffsets,
+          sentCount, recordedMicros * 1000);
+    }
+  }
+
+  /**
+   * Connection for the client: reads the recorded server messages, verifies the sent ones.
+   */
+  public ClientServerConnection connect() {
+    return new ClientServerConnection(Channels.newChannel(new ByteArrayInputStream(serverStream)),
+        new VerifyingChannel());
+  }
+
+  // Every sent message matched the recording, and none is missing or extra
+  public boolean isVerified() {
+    return mismatched == 0 && nextSent == sentCount;
+  }
+
+  public long getRecordedNanos() {
+    return recordedNanos;
+  }
+
+  public String getReport() {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("# replay: %d of %d sent messages matched, %d SCHD matched, "
+        + "%d SCHD differed", matched, sentCount, schdMatched, schdMismatched));
+    if (mismatched > 0) {
+      report.append(String.format("%n# first difference at %s", firstMismatch));
+    } else if (nextSent < sentCount) {
+      report.append(String.format("%n# the client stopped after %d of %d messages", nextSent,
+          sentCount));
+    }
+    return report.append(String.format("%n# recorded session took %.1f ms",
+        recordedNanos / 1e6)).toString();
+  }
+
+  // Compare a message the client sent with the recorded message at the same position
+  private void verify(byte[] message, int length) {
+    int index = nextSent++;
+    boolean recorded = index < sentCount;
+    int start = recorded ? sentOffsets[index] : 0;
+    int end = recorded ? sentOffsets[index + 1] : 0;
+    // AUTH carries the name of the user who ran the client, which differs between machines
+    boolean equal = recorded && (Arrays.equals(sent, start, end, message, 0, length)
+        || (startsWith(AUTH, message, 0, length) && startsWith(AUTH, sent, start, end)));
+    boolean schd = startsWith(SCHD, message, 0, length) || startsWith(SCHD, sent, start, end);
+
+    if (equal) {
+      matched++;
+    } else {
+      mismatched++;
+      if (firstMismatch == null) {
+        firstMismatch = "message " + (index + 1) + ": recorded '"
+            + (recorded ? new String(sent, start, end - start, StandardCharsets.US_ASCII)
+                : "<end of session>")
+            + "', replayed '" + new String(message, 0, length, StandardCharsets.US_ASCII) + "'";
+      }
+    }
+    if (schd) {
+      if (equal) {
+        schdMatched++;
+      } else {
+        schdMismatched++;
+      }
+    }
+  }
+
+  private static boolean startsWith(byte[] prefix, byte[] bytes, int from, int to) {
+    return to - from >= prefix.length
+        && Arrays.equals(bytes, from, from + prefix.length, prefix, 0, prefix.length);
+  }
+
+  // Returns -1 at the end of the stream
+  private static long readVarLong(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        if (shift == 0) {
+          return -1;
+        }
+        throw new EOFException("Truncated session recording");
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  // Splits what the client writes into messages and verifies each one
+  private class VerifyingChannel implements WritableByteChannel {
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private boolean open = true;
+
+    @Override
+    public int write(ByteBuffer src) {
+      int written = src.remaining();
+      while (src.hasRemaining()) {
+        byte b = src.get();
+        if (b == '\n') {
+          verify(line, lineLength);
+          lineLength = 0;
+          continue;
+        }
+        if (lineLength == line.length) {
+          line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = b;
+      }
+      return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Splits the rows of a ServerState into shards that are scanned in parallel for each job, one
+ * worker thread per shard, and merges the shards' best rows into the single best one.
+ *
+ * <p>
+ * Shards are contiguous row ranges, cut at server type boundaries where possible, so a shard
+ * mostly holds one capacity class and is skipped for jobs none of its types can run. The model
+ * itself stays single-writer: the client thread updates it between scans, and the workers only
+ * read it while the client thread waits for the scan, so the model needs no locks.
+ * </p>
+ *
+ * <p>
+ * The result does not depend on the number of shards: rows are ranked by (tier, score, tie
+ * breaker, row), the same order a sequential scan in row order picks its first best row by.
+ * </p>
+ */
+public class ShardedScan {
+  // Busy waits before parking, short as handing a scan over only pays off with spare cores
+  private static final int SPINS = 256;
+
+  /**
+   * Ranks the rows for a job. Any lower tier wins, then a lower score, then a lower tie breaker,
+   * then the lower row. A negative tier skips the row. Called from several threads at once, so
+   * it must only read the model.
+   */
+  public interface RowScorer {
+    int tier(int row, Job job);
+
+    double score(int row, Job job);
+
+    default int tieBreak(int row, Job job) {
+      return 0;
+    }
+  }
+
+  private final int[] shardStart;
+  private final int[] shardEnd;
+  // Largest capacities of each shard's server types, to route jobs to capable shards only
+  private final int[] shardMaxCore;
+  private final int[] shardMaxMemory;
+  private final int[] shardMaxDisk;
+
+  // Best row of each shard in the current scan, -1 if it had no candidate
+  private final int[] bestRow;
+  private final int[] bestTier;
+  private final double[] bestScore;
+  private final int[] bestTieBreak;
+
+  private final Thread[] workers;
+  private final AtomicInteger pending = new AtomicInteger();
+  private volatile int generation = 0;
+  private volatile boolean closed = false;
+  private Thread caller;
+  private RowScorer scorer;
+  private Job job;
+
+  /**
+   * @param shards number of shards wanted, fewer are used so that every shard has at least
+   *        minShardRows rows. A single shard scans on the calling thread, without workers.
+   */
+  public ShardedScan(ServerState serverState, int shards, int minShardRows) {
+    int numOfRows = serverState.size();
+    int count = Math.max(1, Math.min(shards, numOfRows / Math.max(minShardRows, 1)));
+    int target = (numOfRows + count - 1) / count;
+    ServerTable table = serverState.getTable();
+
+    int[] starts = new int[count];
+    int used = 1;
+    for (int row = 1; row < numOfRows && used < count; row++) {
+      int length = row - starts[used - 1];
+      boolean typeBoundary = table.typeID[row] != table.typeID[row - 1];
+      if (length >= target || (typeBoundary && length >= target / 2)) {
+        starts[used++] = row;
+      }
+    }
+
+    shardStart = new int[used];
+    shardEnd = new int[used];
+    shardMaxCore = new int[used];
+    shardMaxMemory = new int[used];
+    shardMaxDisk = new int[used];
+    for (int shard = 0; shard < used; shard++) {
+      shardStart[shard] = starts[shard];
+      shardEnd[shard] = (shard + 1 < used) ? starts[shard + 1] : numOfRows;
+      for (int row = shardStart[shard]; row < shardEnd[shard]; row++) {
+        ServerXML type = serverState.getServerTypeAt(row);
+        shardMaxCore[shard] = Math.max(shardMaxCore[shard],
+            (type != null) ? type.cores : Integer.MAX_VALUE);
+        shardMaxMemory[shard] = Math.max(shardMaxMemory[shard],
+            (type != null) ? type.memory : Integer.MAX_VALUE);
+        shardMaxDisk[shard] = Math.max(shardMaxDisk[shard],
+            (type != null) ? type.disk : Integer.MAX_VALUE);
+      }
+    }
+
+    bestRow = new int[used];
+    bestTier = new int[used];
+    bestScore = new double[used];
+    bestTieBreak = new int[used];
+
+    // The calling thread scans shard 0 itself
+    workers = new Thread[used];
+    for (int shard = 1; shard < used; shard++) {
+      int workerShard = shard;
+      workers[shard] = new Thread(() -> work(workerShard), "shard-" + shard);
+      workers[shard].setDaemon(true);
+      workers[shard].start();
+    }
+  }
+
+  public int getShardCount() {
+    return shardStart.length;
+  }
+
+  /**
+   * The best row for the job over every shard that has a type capable of running it, or -1 if no
+   * row is a candidate.
+   */
+  public int scan(Job job, RowScorer scorer) {
+    int numOfShards = shardStart.length;
+    boolean parallel = false;
+    for (int shard = 1; shard < numOfShards && !closed; shard++) {
+      parallel |= isCapable(shard, job);
+    }
+
+    if (parallel) {
+      this.scorer = scorer;
+      this.job = job;
+      caller = Thread.currentThread();
+      // Every worker reports back, also those without a capable type, so no worker can still be
+      // reading this scan's job when the next one is published
+      pending.set(numOfShards - 1);
+      // The volatile write publishes the job, the scorer and the model to the workers
+      generation++;
+      for (int shard = 1; shard < numOfShards; shard++) {
+        LockSupport.unpark(workers[shard]);
+      }
+    }
+    for (int shard = 0; shard < (parallel ? 1 : numOfShards); shard++) {
+      if (isCapable(shard, job)) {
+        scanShard(shard, job, scorer);
+      } else {
+        bestRow[shard] = -1;
+      }
+    }
+    if (parallel) {
+      for (int spins = 0; pending.get() > 0; spins++) {
+        if (spins < SPINS) {
+          Thread.onSpinWait();
+        } else {
+          LockSupport.park(this);
+        }
+      }
+      this.scorer = null;
+      this.job = null;
+    }
+
+    // Shards are in row order, so on a complete tie the earlier shard's row wins
+    int best = -1;
+    for (int shard = 0; shard < numOfShards; shard++) {
+      if (bestRow[shard] >= 0 && (best < 0 || ranksBefore(shard, best))) {
+        best = shard;
+      }
+    }
+    return (best < 0) ? -1 : bestRow[best];
+  }
+
+  /**
+   * Stop the workers. Scans after closing run on the calling thread only.
+   */
+  public void close() {
+    closed = true;
+    for (Thread worker : workers) {
+      if (worker != null) {
+        LockSupport.unpark(worker);
+      }
+    }
+  }
+
+  private void work(int shard) {
+    int seen = 0;
+    while (true) {
+      int current;
+      for (int spins = 0; (current = generation) == seen && !closed; spins++) {
+        if (spins < SPINS) {
+          Thread.onSpinWait();
+        } else {
+          LockSupport.park(this);
+        }
+      }
+      if (closed) {
+        return;
+      }
+      seen = current;
+      if (isCapable(shard, job)) {
+        scanShard(shard, job, scorer);
+      } else {
+        bestRow[shard] = -1;
+      }
+      if (pending.decrementAndGet() == 0) {
+        LockSupport.unpark(caller);
+      }
+    }
+  }
+
+  private boolean isCapable(int shard, Job job) {
+    return shardMaxCore[shard] >= job.reqCore && shardMaxMemory[shard] >= job.reqMemory
+        && shardMaxDisk[shard] >= job.reqDisk;
+  }
+
+  private void scanShard(int shard, Job job, RowScorer scorer) {
+    int row = -1;
+    int tier = Integer.MAX_VALUE;
+    double score = Double.MAX_VALUE;
+    int tieBreak = Integer.MAX_VALUE;
+    for (int r = shardStart[shard]; r < shardEnd[shard]; r++) {
+      int rowTier = scorer.tier(r, job);
+      if (rowTier < 0 || rowTier > tier) {
+        continue;
+      }
+      double rowScore = scorer.score(r, job);
+      if (rowTier == tier && rowScore > score) {
+        continue;
+      }
+      int rowTieBreak = scorer.tieBreak(r, job);
+      if (rowTier < tier || rowScore < score || rowTieBreak < tieBreak) {
+        row = r;
+        tier = rowTier;
+        score = rowScore;
+        tieBreak = rowTieBreak;
+      }
+    }
+    bestRow[shard] = row;
+    bestTier[shard] = tier;
+    bestScore[shard] = score;
+    bestTieBreak[shard] = tieBreak;
+  }
+
+  private boolean ranksBefore(int shard, int other) {
+    if (bestTier[shard] != bestTier[other]) {
+      return bestTier[shard] < bestTier[other];
+    }
+    if (bestScore[shard] != bestScore[other]) {
+      return bestScore[shard] < bestScore[other];
+    }
+    return bestTieBreak[shard] < bestTieBreak[other];
+  }
+}
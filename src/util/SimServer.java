@@ -0,0 +1,1111 @@
+package util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import util.enums.Command;
+
+/**
+ * A pure Java stand-in for ds-server.
+ *
+ * <p>
+ * Simulates the servers of a ds-system.xml catalogue and replays a job trace (the 'job' elements
+ * of a ds-system.xml, or a synthetic generator), speaking the subset of the ds-sim protocol the
+ * client uses. A session can run over a loopback socket or an in-memory pipe, so scheduling
+ * decisions can be measured without the ds-server binary, process start up or kernel networking.
+ * </p>
+ *
+ * <p>
+ * Jobs scheduled to a booting server reserve their resources straight away and start when the
+ * server becomes active. Waiting jobs start in submission order as resources free up, and can be
+ * moved to another server with MIGJ.
+ * </p>
+ *
+ * <p>
+ * The last submitted job can be parked in the global queue 'GQ' with ENQJ. DEQJ resubmits a queued
+ * job, which is sent as JOBP before any other event, and CHKQ is sent once the queue is all that is
+ * left to do.
+ * </p>
+ *
+ * <p>
+ * TERM shuts a server down: its jobs are killed and resubmitted as JOBP, and it is inactive until
+ * its next job boots it again. Each rental is charged from the start of its boot up until its
+ * termination or the end of the simulation, idle or not.
+ * </p>
+ *
+ * <p>
+ * With failures enabled, every server fails after an exponentially distributed time (mean time
+ * between failures) and recovers after another one (mean recovery time), reported as RESF and
+ * RESR. A failure kills the server's jobs, which are resubmitted as JOBP, and ends its rental.
+ * The server is unavailable until it recovers, and then inactive. Failures only happen while
+ * there are jobs to run.
+ * </p>
+ *
+ * <p>
+ * A reconnecting stand-in keeps the session when the client disconnects without QUIT, e.g. after
+ * a crash, and serves the next connection from where it stopped. The restarted client first gets
+ * the last JCPL, RESF or RESR again, in case it was lost, then every job it had not scheduled,
+ * including the global queue, as JOBP.
+ * </p>
+ */
+public class SimServer {
+  private static final Command[] COMMAND_VALUES = Command.values();
+  private static final byte[][] COMMANDS = ProtocolReader.encode(COMMAND_VALUES);
+  private static final int RECORD_LENGTH = 124;
+
+  /**
+   * Supplies jobs in submission order, returning null when the trace is exhausted.
+   */
+  public interface JobSource {
+    Job next();
+  }
+
+  /**
+   * Summary of a simulation session, in the spirit of the ds-server end of run report.
+   */
+  public static class Stats {
+    public long jobsCompleted;
+    public long jobsUnscheduled;
+    public int endTime;
+    public int serversUsed;
+    public double avgWaitingTime;
+    public double avgExecutionTime;
+    public double avgTurnaroundTime;
+    public double avgUtilisation;
+    public double totalCost;
+    public long failures;
+
+    @Override
+    public String toString() {
+      return String.format("# actual simulation end time: %d, #jobs: %d (unscheduled: %d)%n"
+          + "# total #servers used: %d, avg util: %.2f%%, total cost: $%.2f%n"
+          + "# avg waiting time: %.0f, avg exec time: %.0f, avg turnaround time: %.0f",
+          endTime, jobsCompleted, jobsUnscheduled, serversUsed, avgUtilisation * 100, totalCost,
+          avgWaitingTime, avgExecutionTime, avgTurnaroundTime)
+          + (failures > 0 ? String.format("%n# server failures: %d", failures) : "");
+    }
+  }
+
+  private static class SimJob {
+    final Job job;
+    final int actualRunTime;
+    SimServerEntry server;
+    int endTime = -1;
+
+    SimJob(Job job, int actualRunTime) {
+      this.job = job;
+      this.actualRunTime = actualRunTime;
+    }
+  }
+
+  private static class FailureEvent {
+    final int time;
+    final SimServerEntry server;
+    final boolean failure;
+
+    FailureEvent(int time, SimServerEntry server, boolean failure) {
+      this.time = time;
+      this.server = server;
+      this.failure = failure;
+    }
+  }
+
+  private static class SimServerEntry {
+    final ServerXML type;
+    final int serverID;
+    // Position in the GETS All order
+    final int index;
+    int core;
+    int memory;
+    int disk;
+    int bootStart = -1;
+    int readyTime = -1;
+    long busyCoreTime = 0;
+    // Rentals ended by TERM or a failure
+    int rentals = 0;
+    double rentalCost = 0;
+    long rentedTime = 0;
+    boolean failed = false;
+    final List<SimJob> running = new ArrayList<>();
+    final ArrayDeque<SimJob> waiting = new ArrayDeque<>();
+
+    SimServerEntry(ServerXML type, int serverID, int index) {
+      this.type = type;
+      this.serverID = serverID;
+      this.index = index;
+      this.core = type.cores;
+      this.memory = type.memory;
+      this.disk = type.disk;
+    }
+  }
+
+  private final List<SimServerEntry> servers = new ArrayList<>();
+  private final Map<String, SimServerEntry[]> serversByType = new HashMap<>();
+  private final JobSource jobSource;
+  private final double runTimeVariance;
+  private double runTimeScale = 1;
+  private final Random random;
+  private final long seed;
+
+  private final Map<Integer, SimJob> pendingJobs = new HashMap<>();
+  private final List<SimJob> globalQueue = new ArrayList<>();
+  private final ArrayDeque<SimJob> resubmittedJobs = new ArrayDeque<>();
+  // Sessions are served until one ends with QUIT, for clients restarting after a crash
+  private boolean reconnect = false;
+  private boolean finished = false;
+  private int sessions = 0;
+  // Last JCPL, RESF or RESR sent, the next session starts with it
+  private SimJob lastCompletion = null;
+  private FailureEvent lastServerEvent = null;
+  private boolean resendLastEvent = false;
+  private SimJob lastSubmitted = null;
+  private final PriorityQueue<SimJob> completions = new PriorityQueue<>((a, b) ->
+      a.endTime != b.endTime ? Integer.compare(a.endTime, b.endTime)
+          : Integer.compare(a.job.jobID, b.job.jobID));
+  private Job nextJob;
+  private int currentTime = 0;
+
+  // Failure injection, off while the mean time between failures is 0
+  private int meanTimeBetweenFailures = 0;
+  private int meanRecoveryTime = 0;
+  private Random failureRandom = null;
+  private final PriorityQueue<FailureEvent> failureEvents = new PriorityQueue<>((a, b) ->
+      a.time != b.time ? Integer.compare(a.time, b.time)
+          : Integer.compare(a.server.index, b.server.index));
+  private long failures = 0;
+
+  private long jobsCompleted = 0;
+  private long totalWaitingTime = 0;
+  private long totalExecutionTime = 0;
+  private long totalTurnaroundTime = 0;
+
+  private ProtocolReader in;
+  private ProtocolWriter out;
+
+  /**
+   * @param runTimeVariance actual run times deviate uniformly by up to this fraction of the
+   *        estimated run time, e.g. 0.5 for +/-50%. 0 runs every job for exactly its estimate.
+   */
+  public SimServer(List<ServerXML> catalogue, JobSource jobSource, double runTimeVariance,
+      long seed) {
+    for (ServerXML type : catalogue) {
+      SimServerEntry[] typeServers = new SimServerEntry[type.limit];
+      for (int i = 0; i < type.limit; i++) {
+        typeServers[i] = new SimServerEntry(type, i, servers.size());
+        servers.add(typeServers[i]);
+      }
+      serversByType.put(type.serverType, typeServers);
+    }
+    this.jobSource = jobSource;
+    this.runTimeVariance = runTimeVariance;
+    this.random = new Random(seed);
+    this.seed = seed;
+    this.nextJob = jobSource.next();
+  }
+
+  /**
+   * Actual run times average this multiple of the estimate, e.g. 0.6 for jobs whose estimates are
+   * too pessimistic. Applies to jobs submitted from now on.
+   */
+  public void setRunTimeScale(double runTimeScale) {
+    this.runTimeScale = runTimeScale;
+  }
+
+  /**
+   * Let every server fail after a mean of meanTimeBetweenFailures seconds and recover after a mean
+   * of meanRecoveryTime seconds, drawn from the session's seed. 0 disables failures.
+   */
+  public void setFailures(int meanTimeBetweenFailures, int meanRecoveryTime) {
+    this.meanTimeBetweenFailures = meanTimeBetweenFailures;
+    this.meanRecoveryTime = Math.max(1, meanRecoveryTime);
+    failureEvents.clear();
+    if (meanTimeBetweenFailures <= 0) {
+      return;
+    }
+    failureRandom = new Random(seed ^ 0x5DEECE66DL);
+    for (SimServerEntry server : servers) {
+      failureEvents.add(new FailureEvent(currentTime + exponential(meanTimeBetweenFailures),
+          server, true));
+    }
+  }
+
+  // #################
+  // ## Connections ##
+  // #################
+
+  /**
+   * Serve a single session on a background thread over an in-memory pipe, and return the
+   * client's end of it.
+   */
+  public ClientServerConnection connectInMemory() throws IOException {
+    Pipe toServer = Pipe.open();
+    Pipe toClient = Pipe.open();
+
+    Thread serverThread =
+        new Thread(() -> serve(toServer.source(), toClient.sink()), "sim-server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    return new ClientServerConnection(toClient.source(), toServer.sink());
+  }
+
+  /**
+   * Keep the session when the client disconnects without QUIT, so a restarted client resumes it
+   * on its next connection.
+   */
+  public void setReconnect(boolean reconnect) {
+    this.reconnect = reconnect;
+  }
+
+  /**
+   * Accept a single session on a loopback port and serve it on the current thread, or with
+   * reconnecting sessions until one ends with QUIT.
+   */
+  public void listen(int port) throws IOException {
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress("localhost", port));
+      do {
+        accept(serverChannel);
+      } while (reconnect && !finished);
+    }
+  }
+
+  /**
+   * Accept a single session on an already bound channel, e.g. one bound to port 0 so the client
+   * can be told the port before the session starts, and serve it on the current thread.
+   */
+  public void accept(ServerSocketChannel serverChannel) throws IOException {
+    try (SocketChannel channel = serverChannel.accept()) {
+      channel.socket().setTcpNoDelay(true);
+      serve(channel, channel);
+    }
+  }
+
+  // ##############
+  // ## Protocol ##
+  // ##############
+
+  /**
+   * Serve one session until the client sends QUIT or disconnects.
+   */
+  public void serve(ReadableByteChannel source, WritableByteChannel sink) {
+    in = new ProtocolReader(source);
+    out = new ProtocolWriter(sink);
+    if (sessions++ > 0) {
+      resume();
+    }
+    try {
+      while (in.readLine()) {
+        int index = (in.tokenCount() > 0) ? in.tokenIndex(0, COMMANDS) : -1;
+        if (index < 0) {
+          respond("ERR: invalid command");
+          continue;
+        }
+
+        switch (COMMAND_VALUES[index]) {
+          case HELO:
+          case AUTH:
+            respond("OK");
+            break;
+          case REDY:
+            handleRedy();
+            break;
+          case GETS:
+            handleGets();
+            break;
+          case SCHD:
+            handleSchedule();
+            break;
+          case EJWT:
+            handleEstimatedWaitingTime();
+            break;
+          case LSTJ:
+            handleListJobs();
+            break;
+          case CNTJ:
+            handleCountJobs();
+            break;
+          case MIGJ:
+            handleMigrate();
+            break;
+          case ENQJ:
+            handleEnqueue();
+            break;
+          case DEQJ:
+            handleDequeue();
+            break;
+          case LSTQ:
+            handleListQueue();
+            break;
+          case TERM:
+            handleTerminate();
+            break;
+          case QUIT:
+            finished = true;
+            respond("QUIT");
+            return;
+          default:
+            respond("ERR: unsupported command");
+            break;
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("An error occurred in the simulated ds-server session: " + e.getMessage());
+    } finally {
+      try {
+        out.close();
+        in.close();
+      } catch (IOException e) {
+        // Session is over either way
+      }
+    }
+  }
+
+  // The client of the previous session may have crashed before it handled its last messages
+  private void resume() {
+    resendLastEvent = lastCompletion != null || lastServerEvent != null;
+    Set<Integer> resubmitted = new HashSet<>();
+    for (SimJob simJob : resubmittedJobs) {
+      resubmitted.add(simJob.job.jobID);
+    }
+    List<SimJob> unscheduled = new ArrayList<>();
+    for (SimJob simJob : pendingJobs.values()) {
+      if (!resubmitted.contains(simJob.job.jobID)) {
+        unscheduled.add(simJob);
+      }
+    }
+    unscheduled.sort((a, b) -> Integer.compare(a.job.jobID, b.job.jobID));
+    for (SimJob simJob : globalQueue) {
+      pendingJobs.put(simJob.job.jobID, simJob);
+      unscheduled.add(simJob);
+    }
+    globalQueue.clear();
+    resubmittedJobs.addAll(unscheduled);
+    lastSubmitted = null;
+  }
+
+  private void handleRedy() throws IOException {
+    if (resendLastEvent) {
+      resendLastEvent = false;
+      if (lastCompletion != null) {
+        writeCompletion(lastCompletion);
+      } else {
+        writeServerEvent(lastServerEvent);
+      }
+      out.flush();
+      return;
+    }
+
+    SimJob completion = completions.peek();
+    FailureEvent failureEvent = nextFailureEvent();
+    lastCompletion = null;
+    lastServerEvent = null;
+    if (!resubmittedJobs.isEmpty()) {
+      // JOBP submitTime jobID estRuntime core memory disk, resubmitted at the current time
+      lastSubmitted = resubmittedJobs.poll();
+      Job job = lastSubmitted.job;
+      out.append("JOBP ").append(currentTime).append(' ').append(job.jobID).append(' ')
+          .append(job.estRunTime).append(' ').append(job.reqCore).append(' ')
+          .append(job.reqMemory).append(' ').append(job.reqDisk).endLine();
+    } else if (failureEvent != null) {
+      // RESF/RESR serverType serverID time
+      failureEvents.poll();
+      currentTime = Math.max(currentTime, failureEvent.time);
+      SimServerEntry server = failureEvent.server;
+      if (failureEvent.failure) {
+        killJobs(server);
+        endRental(server);
+        server.failed = true;
+        failures++;
+        failureEvents.add(
+            new FailureEvent(currentTime + exponential(meanRecoveryTime), server, false));
+      } else {
+        server.failed = false;
+        failureEvents.add(
+            new FailureEvent(currentTime + exponential(meanTimeBetweenFailures), server, true));
+      }
+      lastServerEvent = new FailureEvent(currentTime, server, failureEvent.failure);
+      writeServerEvent(lastServerEvent);
+    } else if (completion != null && (nextJob == null || completion.endTime <= nextJob.submitTime)) {
+      // JCPL endTime jobID serverType serverID
+      completions.poll();
+      currentTime = Math.max(currentTime, completion.endTime);
+      completeJob(completion);
+      lastCompletion = completion;
+      writeCompletion(completion);
+    } else if (nextJob != null) {
+      // JOBN submitTime jobID estRuntime core memory disk
+      Job job = nextJob;
+      nextJob = jobSource.next();
+      currentTime = Math.max(currentTime, job.submitTime);
+      lastSubmitted = new SimJob(job, actualRunTime(job));
+      pendingJobs.put(job.jobID, lastSubmitted);
+      out.append("JOBN ").append(job.submitTime).append(' ').append(job.jobID).append(' ')
+          .append(job.estRunTime).append(' ').append(job.reqCore).append(' ')
+          .append(job.reqMemory).append(' ').append(job.reqDisk).endLine();
+    } else if (!globalQueue.isEmpty()) {
+      out.append("CHKQ").endLine();
+    } else {
+      out.append("NONE").endLine();
+    }
+    out.flush();
+  }
+
+  private void writeCompletion(SimJob completion) throws IOException {
+    out.append("JCPL ").append(completion.endTime).append(' ').append(completion.job.jobID)
+        .append(' ').append(completion.server.type.serverType).append(' ')
+        .append(completion.server.serverID).endLine();
+  }
+
+  private void writeServerEvent(FailureEvent event) throws IOException {
+    out.append(event.failure ? "RESF " : "RESR ").append(event.server.type.serverType)
+        .append(' ').append(event.server.serverID).append(' ').append(event.time).endLine();
+  }
+
+  /**
+   * The failure or recovery to report next, if it is due before the next completion or job.
+   * Once neither is left, failures are dropped, and the outstanding recoveries are reported, as
+   * queued jobs may be waiting for them.
+   */
+  private FailureEvent nextFailureEvent() {
+    if (failureEvents.isEmpty()) {
+      return null;
+    }
+    SimJob completion = completions.peek();
+    int nextEventTime = Math.min((completion != null) ? completion.endTime : Integer.MAX_VALUE,
+        (nextJob != null) ? nextJob.submitTime : Integer.MAX_VALUE);
+    if (nextEventTime == Integer.MAX_VALUE) {
+      FailureEvent event;
+      while ((event = failureEvents.peek()) != null && event.failure) {
+        failureEvents.poll();
+      }
+      return event;
+    }
+    FailureEvent event = failureEvents.peek();
+    return (event.time < nextEventTime) ? event : null;
+  }
+
+  private void handleGets() throws IOException {
+    List<SimServerEntry> matched = new ArrayList<>();
+    String mode = (in.tokenCount() > 1) ? in.token(1) : "";
+    if (mode.equals("All")) {
+      matched.addAll(servers);
+    } else if (mode.equals("Type") && in.tokenCount() > 2) {
+      SimServerEntry[] typeServers = serversByType.get(in.token(2));
+      if (typeServers != null) {
+        matched.addAll(List.of(typeServers));
+      }
+    } else if ((mode.equals("Capable") || mode.equals("Avail")) && in.tokenCount() > 4) {
+      int core = in.intToken(2);
+      int memory = in.intToken(3);
+      int disk = in.intToken(4);
+      for (SimServerEntry server : servers) {
+        if (isCapable(server, core, memory, disk)
+            && (mode.equals("Capable") || isAvailable(server, core, memory, disk))) {
+          matched.add(server);
+        }
+      }
+    } else {
+      respond("ERR: invalid GETS");
+      return;
+    }
+
+    sendData(matched.size());
+    if (!matched.isEmpty()) {
+      for (SimServerEntry server : matched) {
+        writeServerRecord(server);
+      }
+      out.flush();
+      in.readLine(); // OK
+    }
+    respond(".");
+  }
+
+  private void handleSchedule() throws IOException {
+    if (in.tokenCount() < 4) {
+      respond("ERR: invalid SCHD");
+      return;
+    }
+    SimJob simJob = pendingJobs.get(in.intToken(1));
+    SimServerEntry server = findServer(in.token(2), in.intToken(3));
+    if (simJob == null || server == null) {
+      respond("ERR: invalid job or server");
+      return;
+    }
+    Job job = simJob.job;
+    if (!isCapable(server, job.reqCore, job.reqMemory, job.reqDisk)) {
+      respond("ERR: server incapable of running such a job");
+      return;
+    }
+
+    if (server.failed) {
+      respond("ERR: server unavailable");
+      return;
+    }
+
+    pendingJobs.remove(job.jobID);
+    assignJob(server, simJob);
+    respond("OK");
+  }
+
+  private void handleEstimatedWaitingTime() throws IOException {
+    SimServerEntry server = (in.tokenCount() > 2) ? findServer(in.token(1), in.intToken(2)) : null;
+    if (server == null) {
+      respond("ERR: invalid server");
+      return;
+    }
+
+    long waitingTime = 0;
+    for (SimJob waitingJob : server.waiting) {
+      waitingTime += waitingJob.job.estRunTime;
+    }
+    out.append(waitingTime).endLine();
+    out.flush();
+  }
+
+  private void handleListJobs() throws IOException {
+    SimServerEntry server = (in.tokenCount() > 2) ? findServer(in.token(1), in.intToken(2)) : null;
+    if (server == null) {
+      respond("ERR: invalid server");
+      return;
+    }
+
+    List<SimJob> jobs = new ArrayList<>(server.running);
+    jobs.addAll(server.waiting);
+    sendData(jobs.size());
+    if (!jobs.isEmpty()) {
+      // jobID jobState submitTime startTime estRunTime core memory disk
+      for (SimJob simJob : jobs) {
+        Job job = simJob.job;
+        out.append(job.jobID).append(' ').append(job.jobState).append(' ')
+            .append(job.submitTime).append(' ').append(job.startTime).append(' ')
+            .append(job.estRunTime).append(' ').append(job.reqCore).append(' ')
+            .append(job.reqMemory).append(' ').append(job.reqDisk).endLine();
+      }
+      out.flush();
+      in.readLine(); // OK
+    }
+    respond(".");
+  }
+
+  private void handleCountJobs() throws IOException {
+    SimServerEntry server = (in.tokenCount() > 3) ? findServer(in.token(1), in.intToken(2)) : null;
+    if (server == null) {
+      respond("ERR: invalid server");
+      return;
+    }
+    int jobState = in.intToken(3);
+    int count = (jobState == Job.RUNNING) ? server.running.size()
+        : (jobState == Job.WAITING) ? server.waiting.size() : 0;
+    out.append(count).endLine();
+    out.flush();
+  }
+
+  // MIGJ jobID srcServerType srcServerID tgtServerType tgtServerID, of a waiting job
+  private void handleMigrate() throws IOException {
+    if (in.tokenCount() < 6) {
+      respond("ERR: invalid MIGJ");
+      return;
+    }
+    int jobID = in.intToken(1);
+    SimServerEntry source = findServer(in.token(2), in.intToken(3));
+    SimServerEntry target = findServer(in.token(4), in.intToken(5));
+    if (source == null || target == null) {
+      respond("ERR: invalid server");
+      return;
+    }
+
+    SimJob simJob = null;
+    for (SimJob waitingJob : source.waiting) {
+      if (waitingJob.job.jobID == jobID) {
+        simJob = waitingJob;
+        break;
+      }
+    }
+    if (simJob == null) {
+      respond("ERR: only waiting jobs can be migrated");
+      return;
+    }
+    Job job = simJob.job;
+    if (!isCapable(target, job.reqCore, job.reqMemory, job.reqDisk)) {
+      respond("ERR: server incapable of running such a job");
+      return;
+    }
+    if (target.failed) {
+      respond("ERR: server unavailable");
+      return;
+    }
+
+    source.waiting.remove(simJob);
+    startWaitingJobs(source, Math.max(currentTime, source.readyTime));
+    assignJob(target, simJob);
+    respond("OK");
+  }
+
+  // ENQJ GQ: park the last submitted job, if it has not been scheduled yet
+  private void handleEnqueue() throws IOException {
+    if (in.tokenCount() < 2 || !"GQ".equals(in.token(1))) {
+      respond("ERR: invalid queue");
+      return;
+    }
+    if (lastSubmitted == null || pendingJobs.remove(lastSubmitted.job.jobID) == null) {
+      respond("ERR: no job to enqueue");
+      return;
+    }
+    globalQueue.add(lastSubmitted);
+    lastSubmitted = null;
+    respond("OK");
+  }
+
+  // DEQJ GQ qID: resubmit the queued job at position qID
+  private void handleDequeue() throws IOException {
+    if (in.tokenCount() < 3 || !"GQ".equals(in.token(1))) {
+      respond("ERR: invalid queue");
+      return;
+    }
+    int qID = in.intToken(2);
+    if (qID < 0 || qID >= globalQueue.size()) {
+      respond("ERR: invalid qID");
+      return;
+    }
+    SimJob simJob = globalQueue.remove(qID);
+    pendingJobs.put(simJob.job.jobID, simJob);
+    resubmittedJobs.add(simJob);
+    respond("OK");
+  }
+
+  // LSTQ GQ # counts the queued jobs, LSTQ GQ * lists them and LSTQ GQ qID shows one
+  private void handleListQueue() throws IOException {
+    if (in.tokenCount() < 3 || !"GQ".equals(in.token(1))) {
+      respond("ERR: invalid queue");
+      return;
+    }
+    if ("#".equals(in.token(2))) {
+      out.append(globalQueue.size()).endLine();
+      out.flush();
+    } else if ("*".equals(in.token(2))) {
+      sendData(globalQueue.size());
+      if (!globalQueue.isEmpty()) {
+        for (SimJob simJob : globalQueue) {
+          writeQueuedJob(simJob.job);
+        }
+        out.flush();
+        in.readLine(); // OK
+      }
+      respond(".");
+    } else {
+      int qID = in.intToken(2);
+      if (qID < 0 || qID >= globalQueue.size()) {
+        respond("ERR: invalid qID");
+        return;
+      }
+      writeQueuedJob(globalQueue.get(qID).job);
+      out.flush();
+    }
+  }
+
+  // TERM serverType serverID: kill the server's jobs, which are resubmitted, and shut it down
+  private void handleTerminate() throws IOException {
+    SimServerEntry server = (in.tokenCount() > 2) ? findServer(in.token(1), in.intToken(2)) : null;
+    if (server == null) {
+      respond("ERR: invalid server");
+      return;
+    }
+    if (server.bootStart < 0) {
+      respond("ERR: server is not running");
+      return;
+    }
+
+    int killed = killJobs(server);
+    endRental(server);
+    respond(killed + " jobs killed");
+  }
+
+  // Kill every job of the server, the killed jobs are resubmitted as JOBP
+  private int killJobs(SimServerEntry server) {
+    int killed = 0;
+    for (SimJob simJob : server.running) {
+      Job job = simJob.job;
+      completions.remove(simJob);
+      server.core += job.reqCore;
+      server.memory += job.reqMemory;
+      server.disk += job.reqDisk;
+      if (currentTime > job.startTime) {
+        server.busyCoreTime += (long) job.reqCore * (currentTime - job.startTime);
+      }
+      resubmit(simJob);
+      killed++;
+    }
+    server.running.clear();
+    for (SimJob simJob : server.waiting) {
+      resubmit(simJob);
+      killed++;
+    }
+    server.waiting.clear();
+    return killed;
+  }
+
+  private void endRental(SimServerEntry server) {
+    if (server.bootStart < 0) {
+      return;
+    }
+    server.rentals++;
+    server.rentalCost += (currentTime - server.bootStart) * server.type.hourlyRate / 3600.0;
+    server.rentedTime += Math.max(0, currentTime - server.readyTime);
+    server.bootStart = -1;
+    server.readyTime = -1;
+  }
+
+  private void resubmit(SimJob simJob) {
+    simJob.server = null;
+    simJob.endTime = -1;
+    simJob.job.jobState = Job.SUBMITTED;
+    simJob.job.startTime = -1;
+    pendingJobs.put(simJob.job.jobID, simJob);
+    resubmittedJobs.add(simJob);
+  }
+
+  // Same layout as an LSTJ record: jobID jobState submitTime startTime estRunTime core memory disk
+  private void writeQueuedJob(Job job) {
+    out.append(job.jobID).append(' ').append(Job.SUBMITTED).append(' ')
+        .append(job.submitTime).append(' ').append(-1).append(' ')
+        .append(job.estRunTime).append(' ').append(job.reqCore).append(' ')
+        .append(job.reqMemory).append(' ').append(job.reqDisk).endLine();
+  }
+
+  // DATA nRecs recLen, then wait for the client's OK
+  private void sendData(int numOfRecords) throws IOException {
+    out.append("DATA ").append(numOfRecords).append(' ').append(RECORD_LENGTH).endLine();
+    out.flush();
+    in.readLine(); // OK
+  }
+
+  private void respond(String message) throws IOException {
+    out.append(message).endLine();
+    out.flush();
+  }
+
+  // serverType serverID state curStartTime core memory disk #wJobs #rJobs
+  private void writeServerRecord(SimServerEntry server) {
+    out.append(server.type.serverType).append(' ').append(server.serverID).append(' ')
+        .append(status(server)).append(' ').append(server.readyTime).append(' ')
+        .append(server.core).append(' ').append(server.memory).append(' ')
+        .append(server.disk).append(' ').append(server.waiting.size()).append(' ')
+        .append(server.running.size()).endLine();
+  }
+
+  // ################
+  // ## Simulation ##
+  // ################
+
+  private void assignJob(SimServerEntry server, SimJob simJob) {
+    if (server.bootStart < 0) {
+      // First job of an inactive server starts its boot up
+      server.bootStart = currentTime;
+      server.readyTime = currentTime + server.type.bootupTime;
+    }
+
+    simJob.server = server;
+    if (server.waiting.isEmpty() && fits(server, simJob.job)) {
+      startJob(server, simJob, Math.max(currentTime, server.readyTime));
+    } else {
+      simJob.job.jobState = Job.WAITING;
+      server.waiting.add(simJob);
+    }
+  }
+
+  private void startJob(SimServerEntry server, SimJob simJob, int startTime) {
+    Job job = simJob.job;
+    job.jobState = Job.RUNNING;
+    job.startTime = startTime;
+    simJob.endTime = startTime + simJob.actualRunTime;
+    server.running.add(simJob);
+    server.core -= job.reqCore;
+    server.memory -= job.reqMemory;
+    server.disk -= job.reqDisk;
+    completions.add(simJob);
+  }
+
+  private void completeJob(SimJob simJob) {
+    SimServerEntry server = simJob.server;
+    Job job = simJob.job;
+    server.running.remove(simJob);
+    server.core += job.reqCore;
+    server.memory += job.reqMemory;
+    server.disk += job.reqDisk;
+    server.busyCoreTime += (long) job.reqCore * simJob.actualRunTime;
+
+    jobsCompleted++;
+    totalWaitingTime += job.startTime - job.submitTime;
+    totalExecutionTime += simJob.actualRunTime;
+    totalTurnaroundTime += simJob.endTime - job.submitTime;
+
+    startWaitingJobs(server, currentTime);
+  }
+
+  // Start waiting jobs in submission order while they fit
+  private void startWaitingJobs(SimServerEntry server, int startTime) {
+    while (!server.waiting.isEmpty() && fits(server, server.waiting.peek().job)) {
+      startJob(server, server.waiting.poll(), startTime);
+    }
+  }
+
+  // At least a second, so events always move the clock forward
+  private int exponential(int mean) {
+    return 1 + (int) (-Math.log(1 - failureRandom.nextDouble()) * mean);
+  }
+
+  private int actualRunTime(Job job) {
+    if (runTimeVariance <= 0 && runTimeScale == 1) {
+      return job.estRunTime;
+    }
+    double deviation = (runTimeVariance <= 0) ? 0
+        : (random.nextDouble() * 2 - 1) * runTimeVariance;
+    return Math.max(1, (int) Math.round(job.estRunTime * runTimeScale * (1 + deviation)));
+  }
+
+  private String status(SimServerEntry server) {
+    if (server.failed) {
+      return ServerState.UNAVAILABLE;
+    }
+    if (server.bootStart < 0) {
+      return ServerState.INACTIVE;
+    }
+    if (currentTime < server.readyTime) {
+      return ServerState.BOOTING;
+    }
+    return (server.running.isEmpty() && server.waiting.isEmpty()) ? ServerState.IDLE
+        : ServerState.ACTIVE;
+  }
+
+  private static boolean isCapable(SimServerEntry server, int core, int memory, int disk) {
+    return server.type.cores >= core && server.type.memory >= memory && server.type.disk >= disk;
+  }
+
+  private static boolean isAvailable(SimServerEntry server, int core, int memory, int disk) {
+    return !server.failed && server.waiting.isEmpty() && server.core >= core && server.memory >= memory
+        && server.disk >= disk;
+  }
+
+  private static boolean fits(SimServerEntry server, Job job) {
+    return server.core >= job.reqCore && server.memory >= job.reqMemory
+        && server.disk >= job.reqDisk;
+  }
+
+  private SimServerEntry findServer(String serverType, int serverID) {
+    SimServerEntry[] typeServers = serversByType.get(serverType);
+    return (typeServers != null && serverID >= 0 && serverID < typeServers.length)
+        ? typeServers[serverID] : null;
+  }
+
+  public Stats getStats() {
+    Stats stats = new Stats();
+    stats.jobsCompleted = jobsCompleted;
+    stats.jobsUnscheduled = pendingJobs.size() + globalQueue.size();
+    stats.endTime = currentTime;
+    stats.failures = failures;
+    if (jobsCompleted > 0) {
+      stats.avgWaitingTime = (double) totalWaitingTime / jobsCompleted;
+      stats.avgExecutionTime = (double) totalExecutionTime / jobsCompleted;
+      stats.avgTurnaroundTime = (double) totalTurnaroundTime / jobsCompleted;
+    }
+
+    double totalUtilisation = 0;
+    for (SimServerEntry server : servers) {
+      if (server.bootStart < 0 && server.rentals == 0) {
+        continue;
+      }
+      stats.serversUsed++;
+      stats.totalCost += server.rentalCost;
+      long rentedTime = server.rentedTime;
+      if (server.bootStart >= 0) {
+        // The current rental runs until the end of the simulation
+        int rentalEnd = Math.max(currentTime, server.readyTime);
+        stats.totalCost += (rentalEnd - server.bootStart) * server.type.hourlyRate / 3600.0;
+        rentedTime += rentalEnd - server.readyTime;
+      }
+      if (rentedTime > 0) {
+        totalUtilisation +=
+            (double) server.busyCoreTime / ((long) server.type.cores * rentedTime);
+      }
+    }
+    if (stats.serversUsed > 0) {
+      stats.avgUtilisation = totalUtilisation / stats.serversUsed;
+    }
+    return stats;
+  }
+
+  // #################
+  // ## Job Sources ##
+  // #################
+
+  /**
+   * Stream the 'job' elements of a ds-system.xml style file, without loading the whole file.
+   */
+  public static JobSource xmlJobs(String xmlFilePath) throws IOException {
+    InputStream input = new FileInputStream(xmlFilePath);
+    try {
+      XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+      return () -> {
+        try {
+          while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT
+                && reader.getLocalName().equals("job")
+                && reader.getAttributeValue(null, "submitTime") != null) {
+              return new Job(Integer.parseInt(reader.getAttributeValue(null, "id")),
+                  Integer.parseInt(reader.getAttributeValue(null, "submitTime")),
+                  Integer.parseInt(reader.getAttributeValue(null, "estRunTime")),
+                  Integer.parseInt(reader.getAttributeValue(null, "cores")),
+                  Integer.parseInt(reader.getAttributeValue(null, "memory")),
+                  Integer.parseInt(reader.getAttributeValue(null, "disk")));
+            }
+          }
+          reader.close();
+          input.close();
+        } catch (XMLStreamException | IOException | NumberFormatException e) {
+          System.err.println("An error occurred while reading the job trace: " + e.getMessage());
+        }
+        return null;
+      };
+    } catch (XMLStreamException e) {
+      input.close();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Deterministic synthetic trace of the given number of jobs sized to fit the catalogue, with
+   * inter-arrival times targeting roughly 50% core utilisation of the whole fleet.
+   */
+  public static JobSource syntheticJobs(List<ServerXML> catalogue, long numOfJobs, long seed) {
+    ServerXML largest = catalogue.get(0);
+    long totalCores = 0;
+    for (ServerXML type : catalogue) {
+      totalCores += (long) type.cores * type.limit;
+      if (type.cores > largest.cores) {
+        largest = type;
+      }
+    }
+    ServerXML maxType = largest;
+
+    // Mean job size from the distributions below: (cores + 1) / 2 cores for ~1660 seconds
+    double meanCoreSeconds = (maxType.cores + 1) / 2.0 * 1660;
+    int meanInterArrival = (int) Math.max(1, meanCoreSeconds / (0.5 * Math.max(totalCores, 1)));
+    Random random = new Random(seed);
+    long[] generated = {0};
+    int[] submitTime = {0};
+
+    return () -> {
+      if (generated[0] >= numOfJobs) {
+        return null;
+      }
+      int jobID = (int) generated[0]++;
+      submitTime[0] += random.nextInt(2 * meanInterArrival + 1);
+
+      int core = 1 + random.nextInt(maxType.cores);
+      int memory = 100 + random.nextInt(Math.max(1, maxType.memory * core / maxType.cores - 100));
+      int disk = 100 + random.nextInt(Math.max(1, maxType.disk * core / maxType.cores - 100));
+      double kind = random.nextDouble();
+      int estRunTime = (kind < 0.4) ? 1 + random.nextInt(300)
+          : (kind < 0.8) ? 301 + random.nextInt(1500) : 1801 + random.nextInt(8200);
+      return new Job(jobID, submitTime[0], estRunTime, core, memory, disk);
+    };
+  }
+
+  /**
+   * Standalone loopback stand-in, i.e.
+   * java util.SimServer -c [ds-system.xml] [-j trace.xml | -g numOfJobs] [-p port] [-s seed]
+   * [-r runTimeVariance] [-rs runTimeScale] [-f meanTimeBetweenFailures] [-fr meanRecoveryTime]
+   * [-reconnect on|off]
+   */
+  public static void main(String args[]) throws IOException {
+    String configPath = "ds-system.xml";
+    String tracePath = null;
+    long numOfJobs = 0;
+    int port = 50000;
+    long seed = 0;
+    double runTimeVariance = 0;
+    double runTimeScale = 1;
+    int meanTimeBetweenFailures = 0;
+    int meanRecoveryTime = 0;
+    boolean reconnect = false;
+
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-c":
+          configPath = args[i + 1];
+          break;
+        case "-j":
+          tracePath = args[i + 1];
+          break;
+        case "-g":
+          numOfJobs = Long.parseLong(args[i + 1]);
+          break;
+        case "-p":
+          port = Integer.parseInt(args[i + 1]);
+          break;
+        case "-s":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+        case "-r":
+          runTimeVariance = Double.parseDouble(args[i + 1]);
+          break;
+        case "-rs":
+          runTimeScale = Double.parseDouble(args[i + 1]);
+          break;
+        case "-f":
+          meanTimeBetweenFailures = Integer.parseInt(args[i + 1]);
+          break;
+        case "-fr":
+          meanRecoveryTime = Integer.parseInt(args[i + 1]);
+          break;
+        case "-reconnect":
+          reconnect = args[i + 1].equals("on");
+          break;
+        default:
+          break;
+      }
+    }
+
+    SimServer server = create(configPath, tracePath, numOfJobs, runTimeVariance, seed);
+    server.setRunTimeScale(runTimeScale);
+    server.setFailures(meanTimeBetweenFailures, meanRecoveryTime);
+    server.setReconnect(reconnect);
+    server.listen(port);
+    System.out.println(server.getStats());
+  }
+
+  /**
+   * Build a stand-in from a ds-system.xml, replaying either a job trace file, a synthetic trace
+   * (numOfJobs > 0) or the jobs of the ds-system.xml itself.
+   */
+  public static SimServer create(String configPath, String tracePath, long numOfJobs,
+      double runTimeVariance, long seed) throws IOException {
+    List<ServerXML> catalogue = ServerXML.parse(configPath);
+    JobSource jobs;
+    if (numOfJobs > 0) {
+      jobs = syntheticJobs(catalogue, numOfJobs, seed);
+    } else {
+      jobs = xmlJobs(tracePath != null ? tracePath : configPath);
+    }
+    return new SimServer(catalogue, jobs, runTimeVariance, seed);
+  }
+}
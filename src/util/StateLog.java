@@ -0,0 +1,533 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only, memory-mapped log of the events that change the client's server-state model, with
+ * periodic snapshots of the model, so a restarted client resumes from the latest snapshot and the
+ * records after it instead of rebuilding the model with GETS All.
+ *
+ * <p>
+ * The log is a sequence of SEGMENT_SIZE segments, mapped one at a time. A record is an int length,
+ * a type byte and int fields, and never crosses a segment, so segments can be read independently,
+ * e.g. in parallel. The length is written last, so a record cut short by a crash reads as the end
+ * of the log. A length of -1, or too few bytes left for a length, moves on to the next segment.
+ * </p>
+ *
+ * <p>
+ * Snapshots are written next to the log, to path + ".snap", through a temporary file that is
+ * renamed over the previous snapshot, so there always is one complete snapshot. Each names the log
+ * offset it covers.
+ * </p>
+ */
+public class StateLog {
+  static final byte[] MAGIC = {'D', 'S', 'S', 'L'};
+  static final byte[] SNAPSHOT_MAGIC = {'D', 'S', 'S', 'N'};
+  static final int VERSION = 1;
+  public static final int SEGMENT_SIZE = 1 << 20;
+  // MAGIC and VERSION at the start of the first segment
+  static final int HEADER_SIZE = 8;
+
+  // Record types and their fields
+  // SERVERS firstRow firstServerID count serverType: rows from firstRow are serverType firstID..
+  public static final byte SERVERS = 1;
+  // JOB time jobID estRunTime core memory disk, a JOBN or JOBP
+  public static final byte JOB = 2;
+  // SCHD time jobID row submitTime estRunTime core memory disk boot
+  public static final byte SCHD = 3;
+  // JCPL time jobID row submitTime startTime core, startTime as the model saw it, -1 if unknown
+  public static final byte JCPL = 4;
+  // MIGJ time jobID row of the target
+  public static final byte MIGJ = 5;
+  // UNSCHD time jobID rejected, a SCHD ds-server rejected or dropped
+  public static final byte UNSCHD = 6;
+  // TERM, RESF and RESR time row
+  public static final byte TERM = 7;
+  public static final byte RESF = 8;
+  public static final byte RESR = 9;
+
+  private final Path path;
+  private final FileChannel channel;
+  private MappedByteBuffer segment = null;
+  private long segmentStart = 0;
+  private int recordStart = 0;
+  private long records = 0;
+  private long recordsAtSnapshot = 0;
+
+  private StateLog(Path path, FileChannel channel) {
+    this.path = path;
+    this.channel = channel;
+  }
+
+  /**
+   * Start a new log at the path, replacing any previous log and snapshot there.
+   */
+  public static StateLog create(String path) throws IOException {
+    Path logPath = Paths.get(path);
+    Files.deleteIfExists(snapshotPath(logPath));
+    StateLog log = new StateLog(logPath, FileChannel.open(logPath, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    log.mapSegment(0);
+    log.segment.put(MAGIC).putInt(VERSION);
+    return log;
+  }
+
+  /**
+   * Open an existing log to append to it, after its last complete record.
+   */
+  public static StateLog append(String path) throws IOException {
+    Path logPath = Paths.get(path);
+    long end;
+    try (Reader reader = new Reader(logPath, 0, Long.MAX_VALUE)) {
+      while (reader.next()) {
+        // Only the end is needed
+      }
+      end = reader.position();
+    }
+    StateLog log = new StateLog(logPath,
+        FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    log.mapSegment(end / SEGMENT_SIZE * SEGMENT_SIZE);
+    log.segment.position((int) (end - log.segmentStart));
+    // Clear what a crash may have left after the last complete record
+    for (int i = log.segment.position(); i < SEGMENT_SIZE; i++) {
+      log.segment.put(i, (byte) 0);
+    }
+    return log;
+  }
+
+  public static boolean exists(String path) {
+    return Files.exists(Paths.get(path));
+  }
+
+  // ###############
+  // ## Recording ##
+  // ###############
+
+  /**
+   * Record which server every model row is, as runs of consecutive server IDs of one type.
+   */
+  public void logServers(ServerState serverState) {
+    ServerTable table = serverState.getTable();
+    int row = 0;
+    while (row < table.size) {
+      int firstRow = row;
+      while (row + 1 < table.size && table.typeID[row + 1] == table.typeID[firstRow]
+          && table.serverID[row + 1] == table.serverID[row] + 1) {
+        row++;
+      }
+      row++;
+      byte[] name = table.typeName(table.typeID[firstRow]).getBytes(StandardCharsets.UTF_8);
+      ByteBuffer out = begin(SERVERS, 14 + name.length);
+      out.putInt(firstRow).putInt(table.serverID[firstRow]).putInt(row - firstRow)
+          .putShort((short) name.length).put(name);
+      end();
+    }
+  }
+
+  public void logJob(int time, Job job) {
+    begin(JOB, 24).putInt(time).putInt(job.jobID).putInt(job.estRunTime).putInt(job.reqCore)
+        .putInt(job.reqMemory).putInt(job.reqDisk);
+    end();
+  }
+
+  public void logSchedule(int time, Job job, int row, boolean boot) {
+    begin(SCHD, 33).putInt(time).putInt(job.jobID).putInt(row).putInt(job.submitTime)
+        .putInt(job.estRunTime).putInt(job.reqCore).putInt(job.reqMemory).putInt(job.reqDisk)
+        .put((byte) (boot ? 1 : 0));
+    end();
+  }
+
+  public void logCompletion(int time, int jobID, int row, int submitTime, int startTime,
+      int core) {
+    begin(JCPL, 24).putInt(time).putInt(jobID).putInt(row).putInt(submitTime)
+        .putInt(startTime).putInt(core);
+    end();
+  }
+
+  public void logMigration(int time, int jobID, int row) {
+    begin(MIGJ, 12).putInt(time).putInt(jobID).putInt(row);
+    end();
+  }
+
+  public void logUnschedule(int time, int jobID, boolean rejected) {
+    begin(UNSCHD, 9).putInt(time).putInt(jobID).put((byte) (rejected ? 1 : 0));
+    end();
+  }
+
+  // TERM, RESF or RESR
+  public void logServerEvent(byte type, int time, int row) {
+    begin(type, 8).putInt(time).putInt(row);
+    end();
+  }
+
+  public long getRecords() {
+    return records;
+  }
+
+  public long getRecordsSinceSnapshot() {
+    return records - recordsAtSnapshot;
+  }
+
+  // Log offset the next record is written at
+  public long position() {
+    return segmentStart + segment.position();
+  }
+
+  public void close() {
+    try {
+      long end = position();
+      segment.force();
+      segment = null;
+      // The mapping of the last segment grew the file, only the records are kept
+      channel.truncate(end);
+      channel.close();
+    } catch (IOException e) {
+      System.out.println("IOException ==> " + e.getMessage());
+    }
+  }
+
+  private ByteBuffer begin(byte type, int payload) {
+    int length = 1 + payload;
+    // Always leave room for the length of the next record or the end of segment mark
+    if (segment.remaining() < 4 + length + 4) {
+      segment.putInt(-1);
+      mapSegment(segmentStart + SEGMENT_SIZE);
+    }
+    recordStart = segment.position();
+    segment.position(recordStart + 4);
+    return segment.put(type);
+  }
+
+  private void end() {
+    segment.putInt(recordStart, segment.position() - recordStart - 4);
+    records++;
+  }
+
+  private void mapSegment(long start) {
+    try {
+      segment = channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_SIZE);
+      segmentStart = start;
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot map the state log ==> " + e.getMessage(), e);
+    }
+  }
+
+  // ###############
+  // ## Snapshots ##
+  // ###############
+
+  /**
+   * Write a snapshot of the model as of the current end of the log.
+   */
+  public void snapshot(ServerState serverState, int jobsScheduled) {
+    Path snapshot = snapshotPath(path);
+    Path temporary = Paths.get(snapshot + ".tmp");
+    try {
+      // The records the snapshot covers reach the disk before the snapshot names them
+      segment.force();
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temporary.toFile()), 1 << 16))) {
+        out.write(SNAPSHOT_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(position());
+        out.writeLong(records);
+        out.writeInt(jobsScheduled);
+        serverState.writeSnapshot(out);
+      }
+      Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      recordsAtSnapshot = records;
+    } catch (IOException e) {
+      System.out.println("IOException ==> " + e.getMessage());
+    }
+  }
+
+  /**
+   * The model as of the end of the log: the latest snapshot, with the records after it applied.
+   * Null if the log has no snapshot yet.
+   */
+  public static Restored restore(String path, List<ServerXML> catalogue) throws IOException {
+    Path logPath = Paths.get(path);
+    Restored restored;
+    long offset;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(snapshotPath(logPath).toFile()), 1 << 16))) {
+      byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, SNAPSHOT_MAGIC) || in.readInt() != VERSION) {
+        throw new IOException(snapshotPath(logPath) + " is not a state log snapshot");
+      }
+      offset = in.readLong();
+      long records = in.readLong();
+      int jobsScheduled = in.readInt();
+      restored = new Restored(ServerState.readSnapshot(in, catalogue), records, jobsScheduled);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+
+    try (Reader reader = new Reader(logPath, offset, Long.MAX_VALUE)) {
+      while (reader.next()) {
+        restored.apply(reader);
+      }
+    }
+    return restored;
+  }
+
+  private static Path snapshotPath(Path logPath) {
+    return Paths.get(logPath + ".snap");
+  }
+
+  /**
+   * A model restored from a snapshot and the log records after it.
+   */
+  public static class Restored {
+    public final ServerState serverState;
+    public int jobsScheduled;
+    public long records;
+    public long replayed = 0;
+
+    Restored(ServerState serverState, long records, int jobsScheduled) {
+      this.serverState = serverState;
+      this.records = records;
+      this.jobsScheduled = jobsScheduled;
+    }
+
+    // Apply a record the same way the client applied its event
+    void apply(Reader record) {
+      ServerTable table = serverState.getTable();
+      switch (record.type) {
+        case SCHD:
+          serverState.advanceTime(record.time);
+          serverState.scheduleJob(new Job(record.jobID, record.submitTime, record.estRunTime,
+              record.core, record.memory, record.disk), table.typeName(table.typeID[record.row]),
+              table.serverID[record.row]);
+          jobsScheduled++;
+          break;
+        case JCPL:
+          serverState.advanceTime(record.time);
+          serverState.completeJob(record.jobID);
+          break;
+        case MIGJ:
+          serverState.migrateJob(record.jobID, table.typeName(table.typeID[record.row]),
+              table.serverID[record.row]);
+          break;
+        case UNSCHD:
+          serverState.unscheduleJob(record.jobID);
+          if (record.rejected) {
+            jobsScheduled--;
+          }
+          break;
+        case TERM:
+          serverState.terminateServer(record.row);
+          break;
+        case RESF:
+          serverState.advanceTime(record.time);
+          serverState.failServer(record.row);
+          break;
+        case RESR:
+          serverState.advanceTime(record.time);
+          serverState.recoverServer(record.row);
+          break;
+        default:
+          break;
+      }
+      records++;
+      replayed++;
+    }
+  }
+
+  // #############
+  // ## Reading ##
+  // #############
+
+  /**
+   * Number of segments of a log, e.g. to split it into chunks read in parallel.
+   */
+  public static long segmentCount(String path) throws IOException {
+    return (Files.size(Paths.get(path)) + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+  }
+
+  /**
+   * Reads the records of a log from one offset up to another, or the end of the log. The offsets
+   * must be the start of a record or of a segment. The fields of the current record are public,
+   * only those of its type are set.
+   */
+  public static class Reader implements AutoCloseable {
+    public byte type;
+    public int time;
+    public int jobID;
+    public int row;
+    public int submitTime;
+    public int startTime;
+    public int estRunTime;
+    public int core;
+    public int memory;
+    public int disk;
+    public boolean boot;
+    public boolean rejected;
+    // SERVERS
+    public int serverID;
+    public int count;
+    public String serverType;
+
+    private final FileChannel channel;
+    private final long end;
+    private MappedByteBuffer segment = null;
+    private long segmentStart;
+    private boolean finished = false;
+
+    public Reader(String path, long from, long to) throws IOException {
+      this(Paths.get(path), from, to);
+    }
+
+    Reader(Path path, long from, long to) throws IOException {
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+      end = Math.min(to, channel.size());
+      if (from == 0) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        byte[] magic = new byte[MAGIC.length];
+        if (header.remaining() < HEADER_SIZE || !Arrays.equals(readMagic(header, magic), MAGIC)
+            || header.getInt() != VERSION) {
+          channel.close();
+          throw new IOException(path + " is not a state log");
+        }
+        from = HEADER_SIZE;
+      }
+      mapSegment(from / SEGMENT_SIZE * SEGMENT_SIZE);
+      if (segment != null) {
+        segment.position((int) (from - segmentStart));
+      }
+    }
+
+    /**
+     * Move to the next record, false at the end.
+     */
+    public boolean next() throws IOException {
+      while (!finished) {
+        if (segment == null || segmentStart + segment.position() >= end) {
+          finished = true;
+          break;
+        }
+        int length = (segment.remaining() >= 4) ? segment.getInt() : -1;
+        if (length == -1) {
+          mapSegment(segmentStart + SEGMENT_SIZE);
+          continue;
+        }
+        if (length <= 0 || length > segment.remaining()) {
+          // Never written, or cut short
+          segment.position(segment.position() - 4);
+          finished = true;
+          break;
+        }
+        read(segment, length);
+        return true;
+      }
+      return false;
+    }
+
+    // Offset of the next record, or the end of the log once next() returned false
+    public long position() {
+      return (segment == null) ? end : segmentStart + segment.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+      segment = null;
+      channel.close();
+    }
+
+    private static byte[] readMagic(ByteBuffer header, byte[] magic) {
+      header.get(magic);
+      return magic;
+    }
+
+    private void read(ByteBuffer in, int length) {
+      int next = in.position() + length;
+      type = in.get();
+      switch (type) {
+        case SERVERS:
+          row = in.getInt();
+          serverID = in.getInt();
+          count = in.getInt();
+          byte[] name = new byte[in.getShort()];
+          in.get(name);
+          serverType = new String(name, StandardCharsets.UTF_8);
+          break;
+        case JOB:
+          time = in.getInt();
+          jobID = in.getInt();
+          estRunTime = in.getInt();
+          core = in.getInt();
+          memory = in.getInt();
+          disk = in.getInt();
+          break;
+        case SCHD:
+          time = in.getInt();
+          jobID = in.getInt();
+          row = in.getInt();
+          submitTime = in.getInt();
+          estRunTime = in.getInt();
+          core = in.getInt();
+          memory = in.getInt();
+          disk = in.getInt();
+          boot = in.get() != 0;
+          break;
+        case JCPL:
+          time = in.getInt();
+          jobID = in.getInt();
+          row = in.getInt();
+          submitTime = in.getInt();
+          startTime = in.getInt();
+          core = in.getInt();
+          break;
+        case MIGJ:
+          time = in.getInt();
+          jobID = in.getInt();
+          row = in.getInt();
+          break;
+        case UNSCHD:
+          time = in.getInt();
+          jobID = in.getInt();
+          rejected = in.get() != 0;
+          break;
+        default:
+          // TERM, RESF, RESR
+          time = in.getInt();
+          row = in.getInt();
+          break;
+      }
+      // Fields a later version appends are skipped
+      in.position(next);
+    }
+
+    private void mapSegment(long start) throws IOException {
+      segmentStart = start;
+      if (start >= end) {
+        segment = null;
+        return;
+      }
+      segment = channel.map(FileChannel.MapMode.READ_ONLY, start,
+          Math.min(SEGMENT_SIZE, channel.size() - start));
+    }
+  }
+}
@@ -1,6 +1,6 @@
 package util.enums;
 
 public enum Algorithm {
-    ATL, LRR, FC, FF, BF, WF, CF, FT
+    ATL, LRR, FC, FF, BF, WF, CF, FT, CA
 }
 
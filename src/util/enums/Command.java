@@ -1,6 +1,14 @@
 package util.enums;
 
+import java.nio.charset.StandardCharsets;
+
 public enum Command {
-    HELO, AUTH, REDY, OK, GETS, SCHD, ENQJ, DEQJ, LSTQ, CNTJ, EJWT, LSTJ, MIGJ, KILJ, TERM, QUIT
-}
+    HELO, AUTH, REDY, OK, GETS, SCHD, ENQJ, DEQJ, LSTQ, CNTJ, EJWT, LSTJ, MIGJ, KILJ, TERM, QUIT;
 
+    // Pre-encoded ASCII bytes of the command, written as is by ProtocolWriter
+    private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,6 @@
+package util.enums;
+
+// What a SchedulingPolicy needs the client to maintain or query for it
+public enum StateRequirement {
+    CATALOGUE, SERVER_STATE, SERVER_QUERIES
+}
@@ -0,0 +1,5 @@
+package util.enums;
+
+public enum Transport {
+    STREAM, NIO
+}
@@ -0,0 +1,84 @@
+package util.policy;
+
+import java.util.EnumSet;
+import java.util.Properties;
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+import util.ServerState;
+import util.enums.StateRequirement;
+
+/**
+ * Switches between two policies by load: a cheap one while jobs arrive in bursts or many servers
+ * have a queue, and a more thorough one otherwise.
+ *
+ * <p>
+ * Options: "adaptive.heavy" (default "cf") and "adaptive.light" (default "ft") name the two
+ * policies, "adaptive.burst" (default 4) is the number of jobs submitted in the same second that
+ * counts as a burst, and "adaptive.busy" (default 0.25) the fraction of servers with waiting jobs
+ * that counts as heavy load. Every other option is passed on to both policies.
+ * </p>
+ */
+public class AdaptivePolicy implements SchedulingPolicy {
+  private SchedulingPolicy heavyPolicy = new ClosestFitPolicy();
+  private SchedulingPolicy lightPolicy = new FastestTurnaroundPolicy();
+  private int burstSize = 4;
+  private double busyFraction = 0.25;
+
+  private int lastSubmitTime = -1;
+  private int jobsThisSecond = 0;
+
+  @Override
+  public String getName() {
+    return "adaptive";
+  }
+
+  @Override
+  public EnumSet<StateRequirement> requires() {
+    EnumSet<StateRequirement> requirements = EnumSet.copyOf(heavyPolicy.requires());
+    requirements.addAll(lightPolicy.requires());
+    // The load is measured on the server-state model
+    requirements.add(StateRequirement.SERVER_STATE);
+    requirements.add(StateRequirement.CATALOGUE);
+    return requirements;
+  }
+
+  @Override
+  public void configure(Properties options) {
+    heavyPolicy = loadOrKeep(options.getProperty("adaptive.heavy"), heavyPolicy);
+    lightPolicy = loadOrKeep(options.getProperty("adaptive.light"), lightPolicy);
+    burstSize = Integer.parseInt(
+        options.getProperty("adaptive.burst", Integer.toString(burstSize)));
+    busyFraction = Double.parseDouble(
+        options.getProperty("adaptive.busy", Double.toString(busyFraction)));
+    heavyPolicy.configure(options);
+    lightPolicy.configure(options);
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    if (job.submitTime != lastSubmitTime) {
+      lastSubmitTime = job.submitTime;
+      jobsThisSecond = 0;
+    }
+    jobsThisSecond++;
+
+    ServerState serverState = context.getServerState();
+    boolean heavy = jobsThisSecond >= burstSize
+        || serverState.getWaitingServerCount() >= busyFraction * serverState.size();
+    return heavy ? heavyPolicy.schedule(job, context) : lightPolicy.schedule(job, context);
+  }
+
+  private static SchedulingPolicy loadOrKeep(String name, SchedulingPolicy current) {
+    if (name == null || name.equals(current.getName())) {
+      return current;
+    }
+    SchedulingPolicy policy = SchedulingPolicy.load(name);
+    if (policy == null) {
+      System.out.println("Unknown policy ==> " + name);
+      return current;
+    }
+    return policy;
+  }
+}
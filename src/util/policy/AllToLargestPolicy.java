@@ -0,0 +1,60 @@
+package util.policy;
+
+import java.util.EnumSet;
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+import util.ServerState;
+import util.ServerXML;
+import util.enums.GETSMode;
+import util.enums.StateRequirement;
+
+/**
+ * All-To-Largest: every job goes to the first server of the type with the most cores.
+ */
+public class AllToLargestPolicy implements SchedulingPolicy {
+  // Looked up once per session
+  private Server largestServer = null;
+
+  @Override
+  public String getName() {
+    return "atl";
+  }
+
+  @Override
+  public EnumSet<StateRequirement> requires() {
+    // GETS All is only a fallback for a missing catalogue
+    return EnumSet.of(StateRequirement.CATALOGUE, StateRequirement.SERVER_QUERIES);
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    if (largestServer != null) {
+      return largestServer;
+    }
+
+    // The largest type (most cores, first in catalogue order on ties) is known from ds-system.xml
+    ServerXML largestType = null;
+    for (ServerXML type : context.getCatalogue()) {
+      if (largestType == null || type.getCores() > largestType.getCores()) {
+        largestType = type;
+      }
+    }
+    if (largestType != null) {
+      largestServer = new Server(largestType.getServerType(), 0, ServerState.INACTIVE, -1,
+          largestType.getCores(), largestType.getMemory(), largestType.getDisk(), 0, 0);
+      return largestServer;
+    }
+
+    // Without a catalogue, a single GETS All tells the largest server
+    for (Server server : context.getServers(GETSMode.All, 0, 0, 0)) {
+      if (largestServer == null || server.core > largestServer.core) {
+        largestServer = new Server(server.serverType, server.serverID, server.status,
+            server.currStartTime, server.core, server.memory, server.disk, server.waitingJobs,
+            server.runningJobs);
+      }
+    }
+    return largestServer;
+  }
+}
@@ -0,0 +1,21 @@
+package util.policy;
+
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+
+/**
+ * Best-Fit on the capacity index, see ServerState.bestFit().
+ */
+public class BestFitPolicy implements SchedulingPolicy {
+  @Override
+  public String getName() {
+    return "bf";
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    return context.getServerState().bestFit(job.reqCore, job.reqMemory, job.reqDisk);
+  }
+}
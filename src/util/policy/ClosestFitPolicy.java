@@ -0,0 +1,26 @@
+package util.policy;
+
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+
+/**
+ * Closest-Fit, the default policy.
+ */
+public class ClosestFitPolicy implements SchedulingPolicy {
+  @Override
+  public String getName() {
+    return "cf";
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    // Selection process:
+    // 1.Select a server with the smallest positive core fitness value.
+    // 2.If given 2 servers of the samefitness value, use memory fitness value as a tiebreaker.
+    // 3.If however, there is no positive fitness value server, pick the closest negative fitness value server to 0.
+    // Available servers are preferred over merely capable ones, same as GETS Avail then GETS Capable.
+    return context.getServerState().closestFit(job.reqCore, job.reqMemory, job.reqDisk);
+  }
+}
@@ -0,0 +1,129 @@
+package util.policy;
+
+import java.util.Properties;
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+import util.ServerState;
+import util.ServerTable;
+import util.ServerXML;
+import util.ShardedScan;
+import util.enums.GETSMode;
+
+/**
+ * Cost-Aware: trades the extra rental cost of a placement off against its estimated turnaround,
+ * using the hourly rates and boot up times of ds-system.xml.
+ *
+ * <p>
+ * Option "cost.weight": weight of a second of turnaround against a second of rental of the
+ * cheapest server type (default 1).
+ * </p>
+ */
+public class CostAwarePolicy implements SchedulingPolicy {
+  private double costTurnaroundWeight = 1.0;
+  // Candidate rows, reused across jobs
+  private int[] rows = new int[0];
+  private final Scorer scorer = new Scorer();
+
+  @Override
+  public String getName() {
+    return "ca";
+  }
+
+  @Override
+  public void configure(Properties options) {
+    costTurnaroundWeight = Double.parseDouble(
+        options.getProperty("cost.weight", Double.toString(costTurnaroundWeight)));
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    ServerState serverState = context.getServerState();
+    scorer.prepare(job, context);
+    ShardedScan shardedScan = context.getShardedScan();
+    if (shardedScan != null) {
+      int chosenRow = shardedScan.scan(job, scorer);
+      return (chosenRow < 0) ? null : serverState.getServerAt(chosenRow);
+    }
+
+    if (rows.length < serverState.size()) {
+      rows = new int[serverState.size()];
+    }
+    int count = serverState.getServerRows(GETSMode.Capable, job.reqCore, job.reqMemory,
+        job.reqDisk, rows);
+    if (count == 0) {
+      return null;
+    }
+
+    int chosenRow = -1;
+    double lowestScore = Double.MAX_VALUE;
+    int chosenFitness = Integer.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      int row = rows[i];
+      double score = scorer.score(row, job);
+      int fitness = scorer.tieBreak(row, job);
+      if (score < lowestScore || (score == lowestScore && fitness < chosenFitness)) {
+        lowestScore = score;
+        chosenFitness = fitness;
+        chosenRow = row;
+      }
+    }
+    return serverState.getServerAt(chosenRow);
+  }
+
+  private class Scorer implements ShardedScan.RowScorer {
+    ServerState serverState;
+    ServerTable table;
+    double cheapestRate;
+    int runTime;
+
+    void prepare(Job job, SchedulingContext context) {
+      serverState = context.getServerState();
+      table = serverState.getTable();
+
+      // Rental cost is expressed in seconds of the cheapest server type, so it can be traded off
+      // against turnaround time in seconds
+      cheapestRate = Double.MAX_VALUE;
+      for (ServerXML type : context.getCatalogue()) {
+        if (type.getHourlyRate() > 0) {
+          cheapestRate = Math.min(cheapestRate, type.getHourlyRate());
+        }
+      }
+      if (cheapestRate == Double.MAX_VALUE) {
+        cheapestRate = 1;
+      }
+      runTime = serverState.predictRunTime(job);
+    }
+
+    @Override
+    public int tier(int row, Job job) {
+      return serverState.matchesAt(row, GETSMode.Capable, job.reqCore, job.reqMemory, job.reqDisk)
+          ? 0 : -1;
+    }
+
+    @Override
+    public double score(int row, Job job) {
+      ServerXML type = serverState.getServerTypeAt(row);
+      double rate = (type == null) ? cheapestRate : type.getHourlyRate();
+
+      // Estimated turnaround includes the boot up time of inactive/booting servers
+      int turnaround = serverState.estimateWaitTimeAt(row, job) + runTime;
+
+      // Only the rental time beyond what the server's current jobs already pay for is extra cost,
+      // an inactive server has to be rented for the whole boot up and turnaround
+      int rentedTime = (table.status[row] == ServerTable.INACTIVE) ? turnaround
+          : Math.max(0, serverState.getCurrentTime() + turnaround
+              - serverState.estimateCompletionTimeAt(row));
+
+      return rentedTime * rate / cheapestRate + costTurnaroundWeight * turnaround;
+    }
+
+    // Pack jobs: on equal scores prefer the server left with the fewest free cores
+    @Override
+    public int tieBreak(int row, Job job) {
+      int core = table.core[row];
+      return (core >= job.reqCore) ? core - job.reqCore : Integer.MAX_VALUE - 1;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package util.policy;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+import util.ServerState;
+import util.ShardedScan;
+import util.enums.GETSMode;
+import util.enums.StateRequirement;
+
+/**
+ * Fastest-Turnaround: the available, otherwise capable, server with the shortest estimated
+ * waiting time.
+ *
+ * <p>
+ * Option "ejwt.confirm": number of candidates, ranked by the locally estimated waiting time,
+ * that are confirmed with EJWT. 0 decides purely locally, -1 (default) confirms every candidate.
+ * </p>
+ */
+public class FastestTurnaroundPolicy implements SchedulingPolicy {
+  private int ejwtConfirmCount = -1;
+  // Candidate rows and their local estimates, reused across jobs
+  private int[] rows = new int[0];
+  private int[] estimates = new int[0];
+  private final LocalScorer localScorer = new LocalScorer();
+
+  @Override
+  public String getName() {
+    return "ft";
+  }
+
+  @Override
+  public EnumSet<StateRequirement> requires() {
+    return (ejwtConfirmCount == 0)
+        ? EnumSet.of(StateRequirement.CATALOGUE, StateRequirement.SERVER_STATE)
+        : EnumSet.allOf(StateRequirement.class);
+  }
+
+  @Override
+  public void configure(Properties options) {
+    ejwtConfirmCount =
+        Integer.parseInt(options.getProperty("ejwt.confirm", Integer.toString(ejwtConfirmCount)));
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    ServerState serverState = context.getServerState();
+    ShardedScan shardedScan = context.getShardedScan();
+    if (ejwtConfirmCount == 0 && shardedScan != null) {
+      localScorer.serverState = serverState;
+      int best = shardedScan.scan(job, localScorer);
+      return (best < 0) ? null : serverState.getServerAt(best);
+    }
+
+    if (rows.length < serverState.size()) {
+      rows = new int[serverState.size()];
+      estimates = new int[serverState.size()];
+    }
+    int count =
+        serverState.getServerRows(GETSMode.Avail, job.reqCore, job.reqMemory, job.reqDisk, rows);
+    if (count == 0) {
+      count = serverState.getServerRows(GETSMode.Capable, job.reqCore, job.reqMemory, job.reqDisk,
+          rows);
+    }
+    if (count == 0) {
+      return null;
+    }
+
+    if (ejwtConfirmCount == 0) {
+      // Purely local: the first candidate with the shortest estimated waiting time
+      int best = rows[0];
+      int bestEstimate = serverState.estimateWaitTimeAt(best, job);
+      for (int i = 1; i < count; i++) {
+        int estimate = serverState.estimateWaitTimeAt(rows[i], job);
+        if (estimate < bestEstimate) {
+          bestEstimate = estimate;
+          best = rows[i];
+        }
+      }
+      return serverState.getServerAt(best);
+    }
+
+    List<Server> servers;
+    if (ejwtConfirmCount > 0) {
+      // Rank the candidates by the locally estimated waiting time first
+      servers = topEstimatedServers(serverState, count, job, ejwtConfirmCount);
+    } else {
+      servers = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        servers.add(serverState.getServerAt(rows[i]));
+      }
+    }
+
+    // query the total estimated waiting time of all candidates in one pipelined batch
+    int[] responses = context.getEstimatedWaitingTimes(servers);
+
+    // Without any estimate, the first (locally best ranked) candidate
+    int chosenServerIndex = 0;
+    int minEstimatedWaitingTime = Integer.MAX_VALUE;
+    for (int i = 0; i < servers.size(); i++) {
+      int estWaitingTime = responses[i];
+
+      // No estimate, e.g. the server failed after the candidates were taken
+      if (estWaitingTime >= 0 && minEstimatedWaitingTime > estWaitingTime) {
+        minEstimatedWaitingTime = estWaitingTime;
+        chosenServerIndex = i;
+      }
+    }
+
+    return servers.get(chosenServerIndex);
+  }
+
+  // The purely local choice as a sharded scan: available servers first, then capable ones
+  private static class LocalScorer implements ShardedScan.RowScorer {
+    ServerState serverState;
+
+    @Override
+    public int tier(int row, Job job) {
+      if (serverState.matchesAt(row, GETSMode.Avail, job.reqCore, job.reqMemory, job.reqDisk)) {
+        return 0;
+      }
+      return serverState.matchesAt(row, GETSMode.Capable, job.reqCore, job.reqMemory, job.reqDisk)
+          ? 1 : -1;
+    }
+
+    @Override
+    public double score(int row, Job job) {
+      return serverState.estimateWaitTimeAt(row, job);
+    }
+  }
+
+  private List<Server> topEstimatedServers(ServerState serverState, int count, Job job,
+      int topCount) {
+    for (int i = 0; i < count; i++) {
+      estimates[i] = serverState.estimateWaitTimeAt(rows[i], job);
+    }
+
+    // Partial selection sort, topCount is expected to be small
+    List<Server> topServers = new ArrayList<>(topCount);
+    for (int k = 0; k < topCount && k < count; k++) {
+      int best = -1;
+      for (int i = 0; i < count; i++) {
+        if (estimates[i] != -1 && (best == -1 || estimates[i] < estimates[best])) {
+          best = i;
+        }
+      }
+      topServers.add(serverState.getServerAt(rows[best]));
+      estimates[best] = -1;
+    }
+    return topServers;
+  }
+}
@@ -0,0 +1,34 @@
+package util.policy;
+
+import java.util.EnumSet;
+import java.util.List;
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+import util.enums.GETSMode;
+import util.enums.StateRequirement;
+
+/**
+ * First-Capable: the first server 'GETS Capable' returns. Baseline that keeps no local state.
+ */
+public class FirstCapablePolicy implements SchedulingPolicy {
+  @Override
+  public String getName() {
+    return "fc";
+  }
+
+  @Override
+  public EnumSet<StateRequirement> requires() {
+    return EnumSet.of(StateRequirement.SERVER_QUERIES);
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    List<Server> servers =
+        context.getServers(GETSMode.Capable, job.reqCore, job.reqMemory, job.reqDisk);
+
+    // Return first server from GETS Capable
+    return servers.isEmpty() ? null : servers.get(0);
+  }
+}
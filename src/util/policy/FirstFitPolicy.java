@@ -0,0 +1,21 @@
+package util.policy;
+
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+
+/**
+ * First-Fit in static ds-system.xml capacity order, see ServerState.firstFit().
+ */
+public class FirstFitPolicy implements SchedulingPolicy {
+  @Override
+  public String getName() {
+    return "ff";
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    return context.getServerState().firstFit(job.reqCore, job.reqMemory, job.reqDisk);
+  }
+}
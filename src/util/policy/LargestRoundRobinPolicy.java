@@ -0,0 +1,84 @@
+package util.policy;
+
+import java.util.EnumSet;
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+import util.ServerState;
+import util.ServerXML;
+import util.enums.GETSMode;
+import util.enums.StateRequirement;
+
+/**
+ * Largest-Round-Robin: jobs go to the servers of the type with the most cores in turn, the first
+ * job to server 0, the next to server 1, and so on, wrapping around after the type's last server.
+ */
+public class LargestRoundRobinPolicy implements SchedulingPolicy {
+  // Looked up once per session, one record per server of the largest type
+  private Server[] largestServers = null;
+  private int next = 0;
+
+  @Override
+  public String getName() {
+    return "lrr";
+  }
+
+  @Override
+  public EnumSet<StateRequirement> requires() {
+    // GETS All is only a fallback for a missing catalogue
+    return EnumSet.of(StateRequirement.CATALOGUE, StateRequirement.SERVER_QUERIES);
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    if (largestServers == null) {
+      largestServers = findLargestServers(context);
+    }
+    if (largestServers.length == 0) {
+      return null;
+    }
+    Server server = largestServers[next];
+    next = (next + 1) % largestServers.length;
+    return server;
+  }
+
+  private static Server[] findLargestServers(SchedulingContext context) {
+    // The largest type (most cores, first in catalogue order on ties) is known from ds-system.xml
+    ServerXML largestType = null;
+    for (ServerXML type : context.getCatalogue()) {
+      if (largestType == null || type.getCores() > largestType.getCores()) {
+        largestType = type;
+      }
+    }
+    if (largestType != null) {
+      Server[] servers = new Server[largestType.getLimit()];
+      for (int serverID = 0; serverID < servers.length; serverID++) {
+        servers[serverID] = new Server(largestType.getServerType(), serverID, ServerState.INACTIVE,
+            -1, largestType.getCores(), largestType.getMemory(), largestType.getDisk(), 0, 0);
+      }
+      return servers;
+    }
+
+    // Without a catalogue, a single GETS All lists the servers of the largest type
+    String largest = null;
+    int cores = -1;
+    int count = 0;
+    for (Server server : context.getServers(GETSMode.All, 0, 0, 0)) {
+      if (server.core > cores) {
+        largest = server.serverType;
+        cores = server.core;
+        count = 0;
+      }
+      if (server.serverType.equals(largest)) {
+        count++;
+      }
+    }
+    Server[] servers = new Server[count];
+    for (int serverID = 0; serverID < count; serverID++) {
+      servers[serverID] = new Server(largest, serverID, ServerState.INACTIVE, -1, cores, 0, 0, 0,
+          0);
+    }
+    return servers;
+  }
+}
@@ -0,0 +1,21 @@
+package util.policy;
+
+import util.Job;
+import util.SchedulingContext;
+import util.SchedulingPolicy;
+import util.Server;
+
+/**
+ * Worst-Fit on the capacity index, see ServerState.worstFit().
+ */
+public class WorstFitPolicy implements SchedulingPolicy {
+  @Override
+  public String getName() {
+    return "wf";
+  }
+
+  @Override
+  public Server schedule(Job job, SchedulingContext context) {
+    return context.getServerState().worstFit(job.reqCore, job.reqMemory, job.reqDisk);
+  }
+}